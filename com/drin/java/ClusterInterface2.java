@@ -11,8 +11,12 @@ import com.drin.java.clustering.Clusterable;
 import com.drin.java.clustering.Cluster;
 import com.drin.java.clustering.HCluster;
 import com.drin.java.clustering.ClusterResults;
+import com.drin.java.clustering.SparseSimilarityGraph;
+import com.drin.java.clustering.SimilarityCache;
 import com.drin.java.analysis.clustering.Clusterer;
 import com.drin.java.analysis.clustering.AgglomerativeClusterer;
+import com.drin.java.analysis.clustering.ConnectedComponentClusterer;
+import com.drin.java.analysis.clustering.NNChainClusterer;
 import com.drin.java.analysis.clustering.OHClusterer;
 
 import com.drin.java.parsers.MatrixParser;
@@ -35,7 +39,12 @@ public class ClusterInterface2 {
                                                            "Experiments"};
 
    private final static String PARAM_SECTION = "parameters",
-                               CACHE_SIMS_OPTION = "cache similarities";
+                               CACHE_SIMS_OPTION = "cache similarities",
+                               SPARSE_GRAPH_OPTION = "sparse similarity graph",
+                               TRANSFORM_OPTION = "apply transform",
+                               THREADS_OPTION = "clustering threads",
+                               CLUSTER_METHOD_OPTION = "cluster method",
+                               CONNECTED_COMPONENTS = "connected components";
 
    private CPLOPConnection mConn;
    private long startTime;
@@ -43,8 +52,7 @@ public class ClusterInterface2 {
    public ClusterInterface2() {
       Configuration.loadConfig("config.cfg");
 
-      try { mConn = new CPLOPConnection(); }
-      catch (Exception err) { err.printStackTrace(); }
+      mConn = CPLOPConnection.getConnection();
    }
 
    public static void main(String[] args) {
@@ -300,11 +308,11 @@ public class ClusterInterface2 {
                                                 Map<String, Map<String, Float>> corrMap,
                                                 float alphaThresh, float betaThresh) {
       System.err.println("wrong clustering method");
-      Map<Float, List<Cluster>> clusterResults = new HashMap<Float, List<Cluster>>();
-      List<Cluster> clusters1 = new ArrayList<Cluster>();
-      List<Cluster> clusters2 = new ArrayList<Cluster>();
+      List<Cluster> clusters = new ArrayList<Cluster>();
+      List<Float> thresholds = new ArrayList<Float>(1);
 
-      Clusterer clusterer = null;
+      //similarities are cached by isolate name, so drop any from earlier runs
+      SimilarityCache.getCache().clear();
 
       for (String isoName : isoSet) {
          Isolate tmpIso = new Isolate(isoName);
@@ -313,36 +321,28 @@ public class ClusterInterface2 {
             tmpIso.setCache(corrMap.get(isoName));
          }
 
-         clusters1.add(new HCluster(tmpIso));
+         clusters.add(new HCluster(tmpIso));
       }
 
-      Cluster.resetClusterIDs();
+      thresholds.add(new Float(alphaThresh));
 
-      for (String isoName : isoSet) {
-         Isolate tmpIso = new Isolate(isoName);
+      if (useConnectedComponents()) {
+         thresholds.add(new Float(betaThresh));
 
-         if (corrMap.containsKey(isoName)) {
-            tmpIso.setCache(corrMap.get(isoName));
-         }
+         ConnectedComponentClusterer ccClusterer = new ConnectedComponentClusterer(thresholds);
+         ccClusterer.clusterData(clusters);
 
-         clusters2.add(new HCluster(tmpIso));
+         return new HashMap<Float, List<Cluster>>(ccClusterer.getClusters());
       }
 
-      //no ontology given so hardcode it to just hierarchical cluster
-      clusterer = new AgglomerativeClusterer(clusters1.size(), alphaThresh, null);
-      clusterer.clusterData(clusters1);
-      clusterResults.put(new Float(alphaThresh), clusters1);
+      //no ontology given so hardcode it to just hierarchical cluster. Cluster
+      //once at beta and cut the dendrogram for alpha
+      NNChainClusterer clusterer = new NNChainClusterer(clusters.size(), betaThresh, null);
+      clusterer.clusterData(clusters, thresholds);
 
       //System.out.println(new ClusterResults(clusterer.getClusters()));
 
-      //no ontology given so hardcode it to just hierarchical cluster
-      clusterer = new AgglomerativeClusterer(clusters2.size(), betaThresh, null);
-      clusterer.clusterData(clusters2);
-      clusterResults.put(new Float(betaThresh), clusters2);
-
-      //System.out.println(new ClusterResults(clusterer.getClusters()));
-
-      return clusterResults;
+      return new HashMap<Float, List<Cluster>>(clusterer.getClusters());
    }
 
    public Map<Float, List<Cluster>> clusterData(String ontologyFile, String selectedData,
@@ -353,10 +353,12 @@ public class ClusterInterface2 {
 
       List<Isolate> isolateDataList = getIsolateData(selectedData);
       Ontology clusterOnt = null;
-      Clusterer clusterer = null;
+      AgglomerativeClusterer clusterer = null;
 
       //boolean useOHClust = false;
       boolean useOHClust = ontologyFile != null;
+      boolean cacheSimilarities = Configuration.getBoolean(PARAM_SECTION, CACHE_SIMS_OPTION);
+      Boolean useSparseGraph = Configuration.getBoolean(PARAM_SECTION, SPARSE_GRAPH_OPTION);
 
       if (useOHClust) {
          System.out.println("I *AM* using OHClust!");
@@ -367,23 +369,56 @@ public class ClusterInterface2 {
       }
 
       for (Isolate isolate : isolateDataList) {
-         if (useOHClust) { clusterOnt.addData(new HCluster(isolate)); }
-         else { clusters1.add(new HCluster(isolate)); }
+         if (useOHClust) { clusterOnt.addData(new HCluster(cacheSimilarities, isolate)); }
+         else { clusters1.add(new HCluster(cacheSimilarities, isolate)); }
       }
 
       //For debugging ontology content
       //System.out.println(clusterOnt);
 
+      //components ignore the ontology's partitions, so there is nothing to
+      //build for either clustering below
+      if (useConnectedComponents()) {
+         ConnectedComponentClusterer ccClusterer = new ConnectedComponentClusterer(betaThresh);
+
+         if (useOHClust) { ccClusterer.clusterData(clusterOnt); }
+         else { ccClusterer.clusterData(clusters1); }
+
+         System.out.println(new ClusterResults(ccClusterer.getClusters()));
+         return ccClusterer.getClusters();
+      }
+
+      //only pairs at or above beta can ever be merged, so the graph drops
+      //everything below it. Dropped pairs count as 0, which is only close
+      //when the transform pushes dissimilar pairs down towards 0
+      SparseSimilarityGraph simGraph = null;
+      if (useSparseGraph != null && useSparseGraph.booleanValue()) {
+         Boolean useTransform = Configuration.getBoolean(PARAM_SECTION, TRANSFORM_OPTION);
+         Integer numThreads = Configuration.getInt(PARAM_SECTION, THREADS_OPTION);
+
+         if (useTransform == null || !useTransform.booleanValue()) {
+            System.err.println("sparse similarity graph needs apply transform, " +
+                               "clustering densely instead");
+         }
+         else {
+            simGraph = new SparseSimilarityGraph(isolateDataList, betaThresh,
+                                                 numThreads == null ? 1 : numThreads.intValue());
+            System.out.printf("sparse similarity graph: %d edges\n", simGraph.getNumEdges());
+         }
+      }
+
       //no ontology given so hardcode it to just hierarchical cluster
       if (useOHClust) {
          System.err.println("OHClustering!");
          clusterer = new OHClusterer(isolateDataList.size(), alphaThresh, betaThresh, null);
+         clusterer.setSimilarityGraph(simGraph);
          clusterer.clusterData(clusterOnt);
          System.out.println(new ClusterResults(clusterer.getClusters()));
          return clusterer.getClusters();
       }
       else {
-         clusterer = new AgglomerativeClusterer(clusters1.size(), betaThresh, null);
+         clusterer = new NNChainClusterer(clusters1.size(), betaThresh, null);
+         clusterer.setSimilarityGraph(simGraph);
          clusterer.clusterData(clusters1);
          clusterResults.put(new Float(betaThresh), clusters1);
          System.out.println(new ClusterResults(clusterResults));
@@ -391,6 +426,11 @@ public class ClusterInterface2 {
       }
    }
 
+   private boolean useConnectedComponents() {
+      return CONNECTED_COMPONENTS.equals(Configuration.getString(PARAM_SECTION,
+                                                                 CLUSTER_METHOD_OPTION));
+   }
+
    public List<Isolate> getIsolateData(String dataSet) {
       List<Isolate> isoData = null;
       int dataSize = 0;
@@ -403,6 +443,7 @@ public class ClusterInterface2 {
             dataSize = idList.length;
          }
 
+         SimilarityCache.getCache().clear();
          isoData = mConn.getIsolateData(dataSize, dataSet);
       }
       catch (java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
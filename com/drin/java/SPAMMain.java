@@ -5,6 +5,7 @@ import com.drin.java.biology.ITSRegion;
 import com.drin.java.biology.Pyroprint;
 
 import com.drin.java.database.CPLOPConnection;
+import com.drin.java.database.StreamingIsolateLoader;
 
 import com.drin.java.ontology.Ontology;
 import com.drin.java.ontology.OntologyTerm;
@@ -13,12 +14,17 @@ import com.drin.java.clustering.Clusterable;
 import com.drin.java.clustering.Cluster;
 import com.drin.java.clustering.HCluster;
 import com.drin.java.clustering.ClusterResults;
+import com.drin.java.clustering.MappedSimilarityMatrix;
+import com.drin.java.clustering.SimilarityCache;
 
 import com.drin.java.metrics.DataMetric;
 import com.drin.java.metrics.ClusterAverageMetric;
 
+import com.drin.java.analysis.clustering.CorrelationMatrixBuilder;
+import com.drin.java.analysis.clustering.Clusterer;
+import com.drin.java.analysis.clustering.ConnectedComponentClusterer;
 import com.drin.java.analysis.clustering.HierarchicalClusterer;
-import com.drin.java.analysis.clustering.AgglomerativeClusterer;
+import com.drin.java.analysis.clustering.NNChainClusterer;
 import com.drin.java.analysis.clustering.OHClusterer;
 
 import com.drin.java.util.Configuration;
@@ -45,7 +51,8 @@ import java.io.File;
 public class SPAMMain {
    private static CPLOPConnection mConn = null;
 
-   private static final int   DEFAULT_SIZE = 0;
+   private static final int   DEFAULT_SIZE = 0,
+                              DEFAULT_LOADER_QUEUE = 64;
 
    private static final String DEFAULT_CONFIG_FILE = "config.cfg",
                                CLUST_METRIC = "cluster metric",
@@ -54,9 +61,17 @@ public class SPAMMain {
                                PYRO_METRIC  = "pyroprint metric",
                                PYRO_LEN     = "pyroprint length",
                                ALPHA_KEY = "alpha threshold",
-                               BETA_KEY  = "beta threshold";
-
-   private HierarchicalClusterer mClusterer;
+                               BETA_KEY  = "beta threshold",
+                               PARAM_SECTION = "parameters",
+                               SIM_FILE_KEY  = "similarity file",
+                               THREADS_KEY   = "clustering threads",
+                               LOADER_THREADS_KEY = "loader threads",
+                               LOADER_QUEUE_KEY   = "loader queue size",
+                               FETCH_SIZE_KEY     = "fetch size",
+                               CLUSTER_METHOD_KEY = "cluster method",
+                               CONNECTED_COMPONENTS = "connected components";
+
+   private Clusterer mClusterer;
    private Ontology mOntology;
    private List<Cluster> matchClusters;
    private ProgressWriter mProgWriter;
@@ -163,66 +178,52 @@ public class SPAMMain {
 
    //Be able to invoke clustering
    public Map<Float, List<Cluster>> clusterData(String dataSetIDs, String tableName) {
-      Map<Float, List<Cluster>> clusterResults = new HashMap<Float, List<Cluster>>();
-
-      List<Cluster> clusters1 = new ArrayList<Cluster>();
-      List<Cluster> clusters2 = new ArrayList<Cluster>();
-      List<Isolate> isolateDataList = getIsolateData(dataSetIDs);
-
-      /*
-       * Prep Cluster lists. Prepping 2 to naively prevent modification of one
-       * list when clustering at 2 different thresholds
-       */
-      for (Isolate isolate : isolateDataList) {
-         clusters1.add(new HCluster(isolate));
-      }
+      List<Cluster> clusters = new ArrayList<Cluster>();
+      List<Isolate> isolates = getIsolateData(dataSetIDs);
 
-      Cluster.resetClusterIDs();
+      attachSimilarityFile(isolates);
 
-      for (Isolate isolate : isolateDataList) {
-         clusters2.add(new HCluster(isolate));
+      for (Isolate isolate : isolates) {
+         clusters.add(new HCluster(isolate));
       }
 
-      /*
-       * Cluster the data and print/return the results
-       */
-
-      //ignore ontologies for now... just agglomerative cluster
-      mClusterer = new AgglomerativeClusterer(clusters1.size(), mAlphaThresh, mProgWriter);
-      mClusterer.clusterData(clusters1);
-      clusterResults.put(new Float(mAlphaThresh), clusters1);
+      return clusterAtThresholds(clusters);
+   }
 
-      System.out.println(new ClusterResults(mClusterer.getClusters()));
+   /*
+    * If a similarity file is configured, reuses the similarities stored in it
+    * for these isolates, or computes and stores them there, so that
+    * comparisons read them from the file instead of recomputing them.
+    */
+   private void attachSimilarityFile(List<Isolate> isolates) {
+      String simFileName = Configuration.getString(PARAM_SECTION, SIM_FILE_KEY);
+      Integer numThreads = Configuration.getInt(PARAM_SECTION, THREADS_KEY);
 
-      //ignore ontologies for now... just agglomerative cluster
-      mClusterer = new AgglomerativeClusterer(clusters2.size(), mBetaThresh, mProgWriter);
-      mClusterer.clusterData(clusters2);
-      clusterResults.put(new Float(mBetaThresh), clusters2);
+      if (simFileName == null || isolates == null || isolates.isEmpty()) { return; }
 
-      System.out.println(new ClusterResults(mClusterer.getClusters()));
+      try {
+         MappedSimilarityMatrix simMatrix = new CorrelationMatrixBuilder(
+            numThreads != null ? numThreads.intValue() : 1
+         ).buildMappedMatrix(isolates, new File(simFileName));
 
-      return clusterResults;
+         SimilarityCache.getCache().attachMatrix(simMatrix, simMatrix.getNames());
+         simMatrix.close();
+      }
+      catch (java.io.IOException ioErr) {
+         System.err.printf("Could not use similarity file '%s'\n", simFileName);
+         ioErr.printStackTrace();
+      }
    }
 
    public Map<Float, List<Cluster>> clusterData(Set<String> dataSetIDs,
                                                 Map<String, Map<String, Float>> corrMap) {
-      Map<Float, List<Cluster>> clusterResults = new HashMap<Float, List<Cluster>>();
-      List<Cluster> clusters1 = new ArrayList<Cluster>();
-      List<Cluster> clusters2 = new ArrayList<Cluster>();
+      List<Cluster> clusters = new ArrayList<Cluster>();
 
       Isolate tmpIso = null;
 
-      for (String isoName : dataSetIDs) {
-         tmpIso = new Isolate(isoName);
-
-         if (corrMap.containsKey(isoName)) {
-            tmpIso.setCache(corrMap.get(isoName));
-         }
-
-         clusters1.add(new HCluster(tmpIso));
-      }
-
-      Cluster.resetClusterIDs();
+      //similarities are cached by isolate name, so similarities from an
+      //earlier run would be used for isolates of the same names
+      SimilarityCache.getCache().clear();
 
       for (String isoName : dataSetIDs) {
          tmpIso = new Isolate(isoName);
@@ -231,28 +232,41 @@ public class SPAMMain {
             tmpIso.setCache(corrMap.get(isoName));
          }
 
-         clusters2.add(new HCluster(tmpIso));
+         clusters.add(new HCluster(tmpIso));
       }
 
-      /*
-       * Cluster the data and print/return the results
-       */
+      return clusterAtThresholds(clusters);
+   }
+
+   /*
+    * Clusters once at the lower of the two thresholds and cuts the recorded
+    * dendrogram for the other, then prints/returns the results. With the
+    * cluster method set to connected components, both thresholds are instead
+    * single linkage clustered in one pass.
+    */
+   private Map<Float, List<Cluster>> clusterAtThresholds(List<Cluster> clusters) {
+      List<Float> thresholds = new ArrayList<Float>(2);
+      thresholds.add(new Float(mAlphaThresh));
 
-      //ignore ontologies for now... just agglomerative cluster
-      mClusterer = new AgglomerativeClusterer(clusters1.size(), mAlphaThresh, mProgWriter);
-      mClusterer.clusterData(clusters1);
-      clusterResults.put(new Float(mAlphaThresh), clusters1);
+      String clusterMethod = Configuration.getString(PARAM_SECTION, CLUSTER_METHOD_KEY);
 
-      System.out.println(new ClusterResults(mClusterer.getClusters()));
+      if (CONNECTED_COMPONENTS.equals(clusterMethod)) {
+         thresholds.add(new Float(mBetaThresh));
 
-      //ignore ontologies for now... just agglomerative cluster
-      mClusterer = new AgglomerativeClusterer(clusters2.size(), mBetaThresh, mProgWriter);
-      mClusterer.clusterData(clusters2);
-      clusterResults.put(new Float(mBetaThresh), clusters2);
+         mClusterer = new ConnectedComponentClusterer(thresholds);
+         mClusterer.clusterData(clusters);
+      }
+      else {
+         //ignore ontologies for now... just agglomerative cluster
+         HierarchicalClusterer clusterer = new NNChainClusterer(clusters.size(), mBetaThresh,
+                                                                mProgWriter);
+         clusterer.clusterData(clusters, thresholds);
+         mClusterer = clusterer;
+      }
 
       System.out.println(new ClusterResults(mClusterer.getClusters()));
 
-      return clusterResults;
+      return new HashMap<Float, List<Cluster>>(mClusterer.getClusters());
    }
 
    //Be able to match data against clusters, instead of include data in the
@@ -288,6 +302,7 @@ public class SPAMMain {
       List<Isolate> isoData = null;
 
       try {
+         SimilarityCache.getCache().clear();
          isoData = mConn.getIsolateData(dataSize, null);
 
          mConn.getIsolateMetaData(isoData, ont, dataSize);
@@ -311,7 +326,23 @@ public class SPAMMain {
             dataSize = idList.length;
          }
 
-         isoData = mConn.getIsolateData(dataSize, dataSet);
+         Integer loaderThreads = Configuration.getInt(PARAM_SECTION, LOADER_THREADS_KEY);
+
+         //cleared before loading, since a streaming load fills the cache
+         SimilarityCache.getCache().clear();
+
+         //with loader threads, isolates are compared while they are loaded
+         if (loaderThreads != null && loaderThreads.intValue() > 0) {
+            Integer queueSize = Configuration.getInt(PARAM_SECTION, LOADER_QUEUE_KEY);
+            Integer fetchSize = Configuration.getInt(PARAM_SECTION, FETCH_SIZE_KEY);
+
+            isoData = new StreamingIsolateLoader(
+               mConn, loaderThreads.intValue(),
+               queueSize != null ? queueSize.intValue() : DEFAULT_LOADER_QUEUE,
+               fetchSize != null ? fetchSize.intValue() : Integer.MIN_VALUE
+            ).load(dataSet);
+         }
+         else { isoData = mConn.getIsolateData(dataSize, dataSet); }
       }
       catch (java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
       catch (Exception err) { err.printStackTrace(); }
@@ -1,23 +1,238 @@
 package com.drin.java.analysis.clustering;
 
 import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.Dendrogram;
+import com.drin.java.clustering.SparseSimilarityGraph;
 import com.drin.java.analysis.clustering.HierarchicalClusterer;
 import com.drin.java.analysis.clustering.HierarchicalClusterer.ClusterPair;
+import com.drin.java.analysis.clustering.BestPairSearch;
+import com.drin.java.analysis.clustering.BestPairSearch.BestPair;
+import com.drin.java.analysis.clustering.BestPairSearch.PairMetric;
 
 import com.drin.java.output.ProgressWriter;
+import com.drin.java.util.Configuration;
 
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Arrays;
 
 public class AgglomerativeClusterer extends HierarchicalClusterer {
+   private static final String PARAM_SECTION = "parameters",
+                               THREADS_ATTR  = "clustering threads";
+
+   private static final PairMetric<Cluster> CLUSTER_METRIC = new PairMetric<Cluster>() {
+      public float compare(Cluster clustA, Cluster clustB) {
+         return clustA.compareTo(clustB);
+      }
+   };
+
+   private BestPairSearch<Cluster> mPairSearch;
+   private SparseSimilarityGraph mSimGraph;
+
    public AgglomerativeClusterer(int dataSize, float thresh,
                                  ProgressWriter writer) {
       super(dataSize, thresh, writer);
       mName = "Agglomerative";
+
+      Integer numThreads = Configuration.getInt(PARAM_SECTION, THREADS_ATTR);
+      if (numThreads != null && numThreads.intValue() > 1) {
+         mPairSearch = new BestPairSearch<Cluster>(numThreads.intValue());
+      }
+      else { mPairSearch = null; }
+
+      mSimGraph = null;
+   }
+
+   /**
+    * Clusters over a sparse similarity graph instead of comparing every pair
+    * of clusters. The linkage between two clusters is the sum of the graph
+    * edges between their elements divided by the product of their sizes, which
+    * counts every dropped pair as 0. That only matches dense average linkage
+    * when the dropped pairs really are 0, so results near the graph's minimum
+    * weight can differ from dense clustering. Passing null goes back to dense
+    * clustering.
+    */
+   public void setSimilarityGraph(SparseSimilarityGraph simGraph) { mSimGraph = simGraph; }
+   public SparseSimilarityGraph getSimilarityGraph() { return mSimGraph; }
+
+   public void shutdown() {
+      if (mPairSearch != null) { mPairSearch.shutdown(); }
+   }
+
+   @Override
+   protected void clusterDataSet(List<Cluster> clusters, float threshold,
+                                 Dendrogram dendrogram) {
+      if (mSimGraph != null) { clusterSparse(clusters, threshold, dendrogram); }
+      else { super.clusterDataSet(clusters, threshold, dendrogram); }
+   }
+
+   /*
+    * Picks pairs the way the dense search does, but by the graph's linkage.
+    * Only clusters joined by at least one edge can be above 0, so candidate
+    * pairs come from a queue of edge-connected pairs. Pairs in the queue go
+    * stale when either cluster merges; those are skipped and the merged
+    * cluster's pairs are queued again.
+    */
+   private void clusterSparse(List<Cluster> clusters, float threshold,
+                              Dendrogram dendrogram) {
+      int numClusters = clusters.size(), numMerges = 0;
+      float minSim = Math.max(threshold, 0.0f);
+
+      Cluster[] slots = clusters.toArray(new Cluster[numClusters]);
+      int[] versions = new int[numClusters];
+      List<Map<Integer, Float>> linkSums = buildLinkSums(slots);
+      PriorityQueue<SparsePair> pairQueue = new PriorityQueue<SparsePair>();
+
+      for (int slotNdx = 0; slotNdx < numClusters; slotNdx++) {
+         queuePairs(pairQueue, slots, versions, linkSums, slotNdx);
+      }
+
+      while (!pairQueue.isEmpty()) {
+         SparsePair pair = pairQueue.poll();
+
+         if (slots[pair.mSlotA] == null || slots[pair.mSlotB] == null ||
+             versions[pair.mSlotA] != pair.mVersionA ||
+             versions[pair.mSlotB] != pair.mVersionB) {
+            continue;
+         }
+
+         if (pair.mClustSim <= minSim) { break; }
+
+         int keepNdx = pair.mSlotA, dropNdx = pair.mSlotB;
+         Map<Integer, Float> keepSums = linkSums.get(keepNdx);
+
+         for (Map.Entry<Integer, Float> dropSum : linkSums.get(dropNdx).entrySet()) {
+            int neighborNdx = dropSum.getKey().intValue();
+            if (neighborNdx == keepNdx) { continue; }
+
+            Map<Integer, Float> neighborSums = linkSums.get(neighborNdx);
+            Float keepSum = keepSums.get(neighborNdx);
+            float mergedSum = dropSum.getValue().floatValue() +
+                              (keepSum == null ? 0.0f : keepSum.floatValue());
+
+            keepSums.put(neighborNdx, new Float(mergedSum));
+            neighborSums.remove(dropNdx);
+            neighborSums.put(keepNdx, new Float(mergedSum));
+         }
+
+         keepSums.remove(dropNdx);
+         linkSums.set(dropNdx, null);
+
+         if (dendrogram != null) {
+            dendrogram.addMerge(slots[keepNdx], slots[dropNdx], pair.mClustSim);
+         }
+
+         slots[keepNdx].join(slots[dropNdx]);
+         slots[dropNdx] = null;
+         versions[keepNdx]++;
+
+         queuePairs(pairQueue, slots, versions, linkSums, keepNdx);
+
+         if (mWriter != null) {
+            mWriter.writeProgress(((float) ++numMerges) / numClusters);
+         }
+      }
+
+      clusters.clear();
+      for (Cluster clust : slots) {
+         if (clust != null) { clusters.add(clust); }
+      }
+
+      if (mWriter != null) { mWriter.writeProgress(1.0f); }
+   }
+
+   /*
+    * For each cluster, the summed weight of the graph edges to each cluster
+    * it shares an edge with.
+    */
+   private List<Map<Integer, Float>> buildLinkSums(Cluster[] slots) {
+      int[] nodeSlots = new int[mSimGraph.getNumNodes()];
+      List<Map<Integer, Float>> linkSums = new ArrayList<Map<Integer, Float>>(slots.length);
+
+      Arrays.fill(nodeSlots, -1);
+
+      for (int slotNdx = 0; slotNdx < slots.length; slotNdx++) {
+         linkSums.add(new HashMap<Integer, Float>());
+
+         for (Clusterable<?> elem : slots[slotNdx].getElements()) {
+            int nodeId = mSimGraph.getNodeId(elem.getName());
+            if (nodeId != -1) { nodeSlots[nodeId] = slotNdx; }
+         }
+      }
+
+      for (int nodeId = 0; nodeId < nodeSlots.length; nodeId++) {
+         int slotNdx = nodeSlots[nodeId];
+         if (slotNdx == -1) { continue; }
+
+         Map<Integer, Float> slotSums = linkSums.get(slotNdx);
+
+         for (int edgeNdx = mSimGraph.getRowStart(nodeId);
+              edgeNdx < mSimGraph.getRowEnd(nodeId); edgeNdx++) {
+            int neighborSlot = nodeSlots[mSimGraph.getNeighbor(edgeNdx)];
+            if (neighborSlot == -1 || neighborSlot == slotNdx) { continue; }
+
+            Float linkSum = slotSums.get(neighborSlot);
+            slotSums.put(neighborSlot, new Float(mSimGraph.getWeight(edgeNdx) +
+                                                 (linkSum == null ? 0.0f : linkSum.floatValue())));
+         }
+      }
+
+      return linkSums;
+   }
+
+   private void queuePairs(PriorityQueue<SparsePair> pairQueue, Cluster[] slots,
+                           int[] versions, List<Map<Integer, Float>> linkSums,
+                           int slotNdx) {
+      for (Map.Entry<Integer, Float> linkSum : linkSums.get(slotNdx).entrySet()) {
+         int neighborNdx = linkSum.getKey().intValue();
+         int slotA = Math.min(slotNdx, neighborNdx), slotB = Math.max(slotNdx, neighborNdx);
+
+         pairQueue.add(new SparsePair(
+            slotA, slotB, versions[slotA], versions[slotB],
+            linkSum.getValue().floatValue() / (slots[slotA].size() * slots[slotB].size())
+         ));
+      }
+   }
+
+   /*
+    * Orders pairs the way the dense search picks them: most similar first,
+    * with ties going to the pair that comes first in row-major order.
+    */
+   private static class SparsePair implements Comparable<SparsePair> {
+      private int mSlotA, mSlotB, mVersionA, mVersionB;
+      private float mClustSim;
+
+      public SparsePair(int slotA, int slotB, int versionA, int versionB, float clustSim) {
+         mSlotA = slotA;
+         mSlotB = slotB;
+         mVersionA = versionA;
+         mVersionB = versionB;
+         mClustSim = clustSim;
+      }
+
+      public int compareTo(SparsePair otherPair) {
+         if (mClustSim != otherPair.mClustSim) {
+            return mClustSim > otherPair.mClustSim ? -1 : 1;
+         }
+         else if (mSlotA != otherPair.mSlotA) { return mSlotA - otherPair.mSlotA; }
+
+         return mSlotB - otherPair.mSlotB;
+      }
    }
 
    @Override
    protected ClusterPair findCloseClusters(List<Cluster> clusters,
                                            float threshold) {
+      if (mPairSearch != null) {
+         BestPair bestPair = mPairSearch.find(clusters, threshold, CLUSTER_METRIC);
+         return new ClusterPair(bestPair.mClustANdx, bestPair.mClustBNdx,
+                                bestPair.mClustSim);
+      }
+
       int closeA = -1, closeB = -1;
       float maxSim = 0.0f;
 
@@ -0,0 +1,144 @@
+package com.drin.java.analysis.clustering;
+
+import java.util.List;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel search for the most similar pair of clusters. The rows of the
+ * pairwise comparison triangle are split across a ForkJoinPool, each task
+ * keeps its own best pair, and partial results are reduced with a
+ * deterministic tie-break on (index A, index B). The chosen pair is the same
+ * one a serial row-major scan using a strict greater-than would choose, so
+ * results are reproducible regardless of the number of threads.
+ */
+public class BestPairSearch<C> {
+   //tasks with fewer pairs than this are scanned on the current thread
+   private static final long PAIR_GRAIN = 2048;
+
+   private final int mParallelism;
+   private ForkJoinPool mPool;
+
+   public interface PairMetric<C> {
+      public float compare(C clustA, C clustB);
+   }
+
+   public BestPairSearch(int parallelism) {
+      mParallelism = parallelism;
+      mPool = null;
+   }
+
+   public int getParallelism() { return mParallelism; }
+
+   /**
+    * Finds the pair of clusters with the greatest similarity that is above
+    * both 0 and the given threshold.
+    *
+    * @return BestPair The best pair, with indices of -1 if no pair of
+    * clusters is similar enough.
+    */
+   public BestPair find(List<C> clusters, float threshold, PairMetric<C> metric) {
+      return getPool().invoke(new RowSearch<C>(clusters, threshold, metric,
+                                               0, clusters.size()));
+   }
+
+   //searches may be started from several threads, e.g. by parallel OHClust
+   private synchronized ForkJoinPool getPool() {
+      if (mPool == null) { mPool = new ForkJoinPool(mParallelism); }
+      return mPool;
+   }
+
+   public synchronized void shutdown() {
+      if (mPool != null) {
+         mPool.shutdown();
+         mPool = null;
+      }
+   }
+
+   public static class BestPair {
+      public int mClustANdx, mClustBNdx;
+      public float mClustSim;
+
+      public BestPair(int clustANdx, int clustBNdx, float clustSim) {
+         mClustANdx = clustANdx;
+         mClustBNdx = clustBNdx;
+         mClustSim = clustSim;
+      }
+
+      /*
+       * Returns the better of this pair and a pair found in later rows. Ties
+       * go to this pair since it comes first in row-major order.
+       */
+      private BestPair reduce(BestPair laterPair) {
+         if (laterPair.mClustSim > mClustSim) { return laterPair; }
+         return this;
+      }
+   }
+
+   @SuppressWarnings("serial")
+   private static class RowSearch<C> extends RecursiveTask<BestPair> {
+      private final List<C> mClusters;
+      private final PairMetric<C> mMetric;
+      private final float mThreshold;
+      private final int mRowStart, mRowEnd;
+
+      public RowSearch(List<C> clusters, float threshold, PairMetric<C> metric,
+                       int rowStart, int rowEnd) {
+         mClusters = clusters;
+         mThreshold = threshold;
+         mMetric = metric;
+         mRowStart = rowStart;
+         mRowEnd = rowEnd;
+      }
+
+      @Override
+      protected BestPair compute() {
+         if (mRowEnd - mRowStart > 1 && numPairs() > PAIR_GRAIN) {
+            int rowMid = (mRowStart + mRowEnd) >>> 1;
+
+            RowSearch<C> upperRows = new RowSearch<C>(mClusters, mThreshold, mMetric,
+                                                      mRowStart, rowMid);
+            RowSearch<C> lowerRows = new RowSearch<C>(mClusters, mThreshold, mMetric,
+                                                      rowMid, mRowEnd);
+
+            lowerRows.fork();
+            BestPair upperPair = upperRows.compute();
+            return upperPair.reduce(lowerRows.join());
+         }
+
+         return scanRows();
+      }
+
+      private long numPairs() {
+         long numClusters = mClusters.size(), pairs = 0;
+
+         for (int row = mRowStart; row < mRowEnd; row++) {
+            pairs += numClusters - row - 1;
+         }
+
+         return pairs;
+      }
+
+      private BestPair scanRows() {
+         int closeA = -1, closeB = -1;
+         float maxSim = 0.0f;
+
+         for (int ndxA = mRowStart; ndxA < mRowEnd; ndxA++) {
+            C clustA = mClusters.get(ndxA);
+
+            for (int ndxB = ndxA + 1; ndxB < mClusters.size(); ndxB++) {
+               float clustSim = mMetric.compare(clustA, mClusters.get(ndxB));
+
+               if (clustSim > maxSim && clustSim > mThreshold) {
+                  closeA = ndxA;
+                  closeB = ndxB;
+                  maxSim = clustSim;
+               }
+            }
+         }
+
+         return new BestPair(closeA, closeB, maxSim);
+      }
+   }
+}
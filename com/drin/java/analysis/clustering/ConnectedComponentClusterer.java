@@ -0,0 +1,315 @@
+package com.drin.java.analysis.clustering;
+
+import com.drin.java.analysis.clustering.Clusterer;
+
+import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.HCluster;
+
+import com.drin.java.ontology.Ontology;
+import com.drin.java.ontology.OntologyTerm;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.Arrays;
+
+/**
+ * Single linkage clustering by connected components. Every pair of data
+ * points more similar than a threshold is streamed into a union-find, and
+ * the clusters at that threshold are the resulting components, so data
+ * points are in the same cluster exactly when they are transitively
+ * connected by such pairs.
+ *
+ * Several thresholds are clustered in one pass over the pairs. Each pair is
+ * put in the band of the highest threshold it is above; pairs in the highest
+ * band are unioned as they arrive and the other bands are unioned in
+ * descending order afterwards, taking the components after each band. Only
+ * the pairs above the lowest threshold are kept, and only when there is more
+ * than one threshold.
+ */
+public class ConnectedComponentClusterer implements Clusterer {
+   private String mName;
+   private float[] mThresholds;
+   private Map<Float, List<Cluster>> mResultClusters;
+
+   private Clusterable<?>[] mNodes;
+   private int[] mParents, mRanks;
+   private EdgeList[] mBands;
+
+   public ConnectedComponentClusterer(float threshold) {
+      this(Collections.singletonList(new Float(threshold)));
+   }
+
+   public ConnectedComponentClusterer(List<Float> thresholds) {
+      if (thresholds.isEmpty()) {
+         throw new IllegalArgumentException("No thresholds to cluster at");
+      }
+
+      mName = "Connected Components";
+      mThresholds = new float[thresholds.size()];
+
+      for (int threshNdx = 0; threshNdx < mThresholds.length; threshNdx++) {
+         mThresholds[threshNdx] = thresholds.get(threshNdx).floatValue();
+      }
+
+      //highest threshold first, which is the order the bands are unioned in
+      Arrays.sort(mThresholds);
+      for (int ndxA = 0, ndxB = mThresholds.length - 1; ndxA < ndxB; ndxA++, ndxB--) {
+         float tmpThresh = mThresholds[ndxA];
+         mThresholds[ndxA] = mThresholds[ndxB];
+         mThresholds[ndxB] = tmpThresh;
+      }
+
+      mResultClusters = new LinkedHashMap<Float, List<Cluster>>(mThresholds.length);
+   }
+
+   public String getName() { return mName; }
+   public float getThreshold() { return mThresholds[mThresholds.length - 1]; }
+   public Map<Float, List<Cluster>> getClusters() { return mResultClusters; }
+
+   /*
+    * Only the pairs above the threshold are seen, so the similarities between
+    * components are not known.
+    */
+   public float getInterStrainSim() { return -2.0f; }
+
+   /**
+    * Clusters data points, such as isolates loaded from CPLOP, comparing each
+    * pair once.
+    */
+   public void clusterIsolates(List<? extends Clusterable<?>> dataPoints) {
+      startRun(dataPoints.toArray(new Clusterable<?>[dataPoints.size()]));
+
+      for (int ndxA = 0; ndxA < mNodes.length; ndxA++) {
+         for (int ndxB = ndxA + 1; ndxB < mNodes.length; ndxB++) {
+            addPair(ndxA, ndxB, mNodes[ndxA].compareTo(mNodes[ndxB]));
+         }
+      }
+
+      finishRun();
+   }
+
+   /**
+    * Clusters a similarity matrix, such as one read by MatrixParser, without
+    * comparing any data. Each name in the matrix becomes a MatrixNode, which
+    * only has a name.
+    */
+   public void clusterMatrix(Map<String, Map<String, Float>> simMatrix) {
+      Map<String, Integer> nodeIds = new LinkedHashMap<String, Integer>(simMatrix.size());
+
+      for (Map.Entry<String, Map<String, Float>> row : simMatrix.entrySet()) {
+         nodeId(nodeIds, row.getKey());
+
+         for (String colName : row.getValue().keySet()) { nodeId(nodeIds, colName); }
+      }
+
+      Clusterable<?>[] nodes = new Clusterable<?>[nodeIds.size()];
+      for (Map.Entry<String, Integer> node : nodeIds.entrySet()) {
+         nodes[node.getValue().intValue()] = new MatrixNode(node.getKey());
+      }
+
+      startRun(nodes);
+
+      for (Map.Entry<String, Map<String, Float>> row : simMatrix.entrySet()) {
+         int rowId = nodeIds.get(row.getKey()).intValue();
+
+         for (Map.Entry<String, Float> col : row.getValue().entrySet()) {
+            if (col.getValue() == null) { continue; }
+
+            addPair(rowId, nodeIds.get(col.getKey()).intValue(),
+                    col.getValue().floatValue());
+         }
+      }
+
+      finishRun();
+   }
+
+   /**
+    * Clusters existing clusters, treating each one as already connected and
+    * linking two clusters when their similarity is above the threshold.
+    */
+   public void clusterData(List<Cluster> clusters) {
+      List<Clusterable<?>> elements = new ArrayList<Clusterable<?>>(clusters.size());
+      int[] firstElement = new int[clusters.size()];
+
+      for (int clustNdx = 0; clustNdx < clusters.size(); clustNdx++) {
+         firstElement[clustNdx] = elements.size();
+         elements.addAll(clusters.get(clustNdx).getElements());
+      }
+
+      startRun(elements.toArray(new Clusterable<?>[elements.size()]));
+
+      for (int clustNdx = 0; clustNdx < clusters.size(); clustNdx++) {
+         int endNdx = clustNdx + 1 < clusters.size() ? firstElement[clustNdx + 1] :
+                                                      elements.size();
+
+         for (int elemNdx = firstElement[clustNdx] + 1; elemNdx < endNdx; elemNdx++) {
+            union(firstElement[clustNdx], elemNdx);
+         }
+      }
+
+      for (int ndxA = 0; ndxA < clusters.size(); ndxA++) {
+         for (int ndxB = ndxA + 1; ndxB < clusters.size(); ndxB++) {
+            addPair(firstElement[ndxA], firstElement[ndxB],
+                    clusters.get(ndxA).compareTo(clusters.get(ndxB)));
+         }
+      }
+
+      finishRun();
+   }
+
+   /**
+    * Clusters all of the data in an ontology as one data set. Components do
+    * not depend on the order pairs are seen in, so the ontology's partitions
+    * would not change the result and are not used.
+    */
+   public void clusterData(Ontology clustOnt) {
+      List<Cluster> clusters = new ArrayList<Cluster>();
+
+      collectData(clustOnt.getRoot(), clusters);
+      clusterData(clusters);
+   }
+
+   private static void collectData(OntologyTerm term, List<Cluster> clusters) {
+      if (term == null) { return; }
+
+      if (term.getData() != null) { clusters.addAll(term.getData()); }
+
+      if (term.getPartitions() != null) {
+         for (OntologyTerm partition : term.getPartitions().values()) {
+            collectData(partition, clusters);
+         }
+      }
+   }
+
+   private static void nodeId(Map<String, Integer> nodeIds, String name) {
+      if (!nodeIds.containsKey(name)) { nodeIds.put(name, new Integer(nodeIds.size())); }
+   }
+
+   private void startRun(Clusterable<?>[] nodes) {
+      mResultClusters.clear();
+      mNodes = nodes;
+      mParents = new int[nodes.length];
+      mRanks = new int[nodes.length];
+      mBands = new EdgeList[mThresholds.length];
+
+      for (int nodeNdx = 0; nodeNdx < nodes.length; nodeNdx++) {
+         mParents[nodeNdx] = nodeNdx;
+      }
+
+      for (int bandNdx = 1; bandNdx < mBands.length; bandNdx++) {
+         mBands[bandNdx] = new EdgeList();
+      }
+   }
+
+   private void addPair(int nodeA, int nodeB, float similarity) {
+      if (similarity > mThresholds[0]) { union(nodeA, nodeB); }
+      else {
+         for (int bandNdx = 1; bandNdx < mThresholds.length; bandNdx++) {
+            if (similarity > mThresholds[bandNdx]) {
+               mBands[bandNdx].add(nodeA, nodeB);
+               break;
+            }
+         }
+      }
+   }
+
+   private void finishRun() {
+      for (int bandNdx = 0; bandNdx < mThresholds.length; bandNdx++) {
+         EdgeList band = mBands[bandNdx];
+
+         if (band != null) {
+            for (int edgeNdx = 0; edgeNdx < band.mSize; edgeNdx++) {
+               union(band.mNodesA[edgeNdx], band.mNodesB[edgeNdx]);
+            }
+         }
+
+         mResultClusters.put(new Float(mThresholds[bandNdx]), components());
+      }
+
+      mNodes = null;
+      mParents = null;
+      mRanks = null;
+      mBands = null;
+   }
+
+   /*
+    * Builds one cluster per component, ordered by the first data point in
+    * each component.
+    */
+   private List<Cluster> components() {
+      List<Cluster> clusters = new ArrayList<Cluster>();
+      Map<Integer, HCluster> rootClusters = new HashMap<Integer, HCluster>();
+
+      for (int nodeNdx = 0; nodeNdx < mNodes.length; nodeNdx++) {
+         Integer root = new Integer(find(nodeNdx));
+         HCluster rootCluster = rootClusters.get(root);
+
+         if (rootCluster == null) {
+            rootCluster = new HCluster(mNodes[nodeNdx]);
+            rootClusters.put(root, rootCluster);
+            clusters.add(rootCluster);
+         }
+         else { rootCluster.join(new HCluster(mNodes[nodeNdx])); }
+      }
+
+      return clusters;
+   }
+
+   private int find(int node) {
+      while (mParents[node] != node) {
+         mParents[node] = mParents[mParents[node]];
+         node = mParents[node];
+      }
+
+      return node;
+   }
+
+   private void union(int nodeA, int nodeB) {
+      int rootA = find(nodeA), rootB = find(nodeB);
+
+      if (rootA == rootB) { return; }
+
+      if (mRanks[rootA] < mRanks[rootB]) { mParents[rootA] = rootB; }
+      else if (mRanks[rootA] > mRanks[rootB]) { mParents[rootB] = rootA; }
+      else {
+         mParents[rootB] = rootA;
+         mRanks[rootA]++;
+      }
+   }
+
+   private static class EdgeList {
+      private int[] mNodesA = new int[64], mNodesB = new int[64];
+      private int mSize = 0;
+
+      private void add(int nodeA, int nodeB) {
+         if (mSize == mNodesA.length) {
+            mNodesA = Arrays.copyOf(mNodesA, mSize * 2);
+            mNodesB = Arrays.copyOf(mNodesB, mSize * 2);
+         }
+
+         mNodesA[mSize] = nodeA;
+         mNodesB[mSize++] = nodeB;
+      }
+   }
+
+   /*
+    * A data point known only by name, for clustering similarities that were
+    * read rather than computed.
+    */
+   private static class MatrixNode extends Clusterable<Object> {
+      private MatrixNode(String name) {
+         super(name, Collections.<Object>emptyList());
+      }
+
+      @Override
+      public float compareTo(Clusterable<?> otherData) { return -2; }
+
+      @Override
+      public MatrixNode deepCopy() { return new MatrixNode(mName); }
+   }
+}
@@ -0,0 +1,475 @@
+package com.drin.java.analysis.clustering;
+
+import com.drin.java.analysis.clustering.NNChainClusterer;
+
+import com.drin.java.biology.Isolate;
+import com.drin.java.biology.ITSRegion;
+import com.drin.java.biology.PeakKernel;
+import com.drin.java.biology.ProtocolRegistry;
+import com.drin.java.biology.Pyroprint;
+
+import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.MappedSimilarityMatrix;
+import com.drin.java.clustering.SimilarityMatrix;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Computes all pairwise similarities up front instead of one pair at a time
+ * through Isolate.compareTo. The pyroprints of each region and protocol are
+ * packed one after another into a single array of centered unit vectors (see
+ * Pyroprint.finalizePeaks), and their correlation matrix is computed in square
+ * tiles of pyroprints so that the rows of a tile stay in cache while they are
+ * multiplied. Tiles are spread over a thread pool.
+ *
+ * The pyroprint correlations are then combined into isolate similarities the
+ * same way ITSRegion.compareTo and Isolate.compareTo combine them, including
+ * each region's transform, so the resulting matrix holds the values those
+ * methods would return.
+ *
+ * Matrices are packed lower triangular matrices laid out by
+ * NNChainClusterer.triangleNdx, which is what NNChainClusterer,
+ * ThresholdSweep and FastCluster.setSimilarities take, or SimilarityMatrix
+ * objects with the same layout.
+ */
+public class CorrelationMatrixBuilder {
+   private static final int DEFAULT_TILE_SIZE = 64;
+   private static final float NO_CORRELATION = -2.0f;
+
+   private int mNumThreads, mTileSize;
+   private PeakKernel mKernel;
+
+   public CorrelationMatrixBuilder(int numThreads) {
+      this(numThreads, DEFAULT_TILE_SIZE);
+   }
+
+   public CorrelationMatrixBuilder(int numThreads, int tileSize) {
+      if (tileSize < 1) {
+         throw new IllegalArgumentException("Tile size must be positive");
+      }
+
+      mNumThreads = Math.max(1, numThreads);
+      mTileSize = tileSize;
+      mKernel = PeakKernel.getKernel();
+   }
+
+   /**
+    * Correlates every pair of pyroprints, which must all have the same
+    * protocol.
+    */
+   public float[] correlate(List<Pyroprint> pyros) {
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      try { return correlate(pyros, threadPool); }
+      finally { threadPool.shutdown(); }
+   }
+
+   /**
+    * Computes the similarity of every pair of isolates. Each isolate must
+    * have two regions, as Isolate.compareTo requires.
+    */
+   public float[] buildIsolateMatrix(List<Isolate> isolates) {
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      try {
+         float[] packedMatrix = new float[matrixSize(isolates.size())];
+
+         combineIsolates(isolates, correlateGroups(isolates, threadPool),
+                         new SimilarityMatrix(isolates.size(), packedMatrix), threadPool);
+         return packedMatrix;
+      }
+      finally { threadPool.shutdown(); }
+   }
+
+   /**
+    * Same as buildIsolateMatrix, but the result is a SimilarityMatrix, which
+    * can hold more isolates than a single packed array.
+    */
+   public SimilarityMatrix buildSimilarityMatrix(List<Isolate> isolates) {
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      try {
+         SimilarityMatrix simMatrix = new SimilarityMatrix(isolates.size());
+
+         combineIsolates(isolates, correlateGroups(isolates, threadPool),
+                         simMatrix, threadPool);
+         return simMatrix;
+      }
+      finally { threadPool.shutdown(); }
+   }
+
+   /**
+    * Same as buildSimilarityMatrix, but the matrix is kept in the given file
+    * and reused if the file holds a matrix for the same isolates, in the
+    * same order, with the same pyroprints, protocols and region transforms.
+    * Otherwise the file is rewritten, each thread writing its own rows.
+    */
+   public MappedSimilarityMatrix buildMappedMatrix(List<Isolate> isolates,
+                                                   File matrixFile) throws IOException {
+      List<String> names = new ArrayList<String>(isolates.size());
+      List<String> properties = describeInput(isolates);
+      long checksum = checksum(isolates, properties);
+
+      for (Isolate isolate : isolates) { names.add(isolate.getName()); }
+
+      MappedSimilarityMatrix simMatrix = MappedSimilarityMatrix.open(matrixFile);
+
+      if (simMatrix != null) {
+         if (simMatrix.matches(names, properties, checksum)) { return simMatrix; }
+         simMatrix.close();
+      }
+
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      try {
+         simMatrix = MappedSimilarityMatrix.create(matrixFile, names, properties, checksum);
+
+         combineIsolates(isolates, correlateGroups(isolates, threadPool),
+                         simMatrix, threadPool);
+         simMatrix.commit();
+
+         return simMatrix;
+      }
+      finally { threadPool.shutdown(); }
+   }
+
+   private float[] correlate(List<Pyroprint> pyros, ExecutorService threadPool) {
+      final int numPyros = pyros.size();
+      int rowLen = 0;
+
+      for (Pyroprint pyro : pyros) {
+         if (pyro.getProtocolId() != pyros.get(0).getProtocolId()) {
+            throw new IllegalArgumentException(String.format(
+               "Pyroprints %s and %s have different protocols",
+               pyros.get(0).getName(), pyro.getName()
+            ));
+         }
+
+         rowLen = Math.max(rowLen, pyro.getNumPeaks());
+      }
+
+      final float[] simMatrix = new float[matrixSize(numPyros)];
+      final float[] unitPeaks = new float[numPyros * rowLen];
+      final Pyroprint[] pyroArr = pyros.toArray(new Pyroprint[numPyros]);
+      final boolean[] packed = new boolean[numPyros];
+      final int stride = rowLen;
+
+      for (int pyroNdx = 0; pyroNdx < numPyros; pyroNdx++) {
+         float[] pyroPeaks = pyroArr[pyroNdx].getUnitPeaks();
+
+         if (pyroPeaks != null) {
+            System.arraycopy(pyroPeaks, 0, unitPeaks, pyroNdx * rowLen, pyroPeaks.length);
+            packed[pyroNdx] = true;
+         }
+      }
+
+      List<Future<Void>> tiles = new ArrayList<Future<Void>>();
+
+      for (int tileStartB = 0; tileStartB < numPyros; tileStartB += mTileSize) {
+         for (int tileStartA = 0; tileStartA <= tileStartB; tileStartA += mTileSize) {
+            final int startA = tileStartA, startB = tileStartB;
+            final int endA = Math.min(startA + mTileSize, numPyros),
+                      endB = Math.min(startB + mTileSize, numPyros);
+
+            tiles.add(threadPool.submit(new Callable<Void>() {
+               public Void call() {
+                  for (int ndxB = startB; ndxB < endB; ndxB++) {
+                     for (int ndxA = startA; ndxA < endA && ndxA < ndxB; ndxA++) {
+                        simMatrix[NNChainClusterer.triangleNdx(ndxA, ndxB)] =
+                           correlation(pyroArr, packed, unitPeaks, stride, ndxA, ndxB);
+                     }
+                  }
+
+                  return null;
+               }
+            }));
+         }
+      }
+
+      waitFor(tiles);
+      return simMatrix;
+   }
+
+   /*
+    * Pyroprints that are not finalized, or that have a different number of
+    * peaks, are correlated over their raw peaks like Pyroprint.compareTo does.
+    */
+   private float correlation(Pyroprint[] pyros, boolean[] packed, float[] unitPeaks,
+                             int stride, int ndxA, int ndxB) {
+      int numPeaks = pyros[ndxA].getNumPeaks();
+
+      if (packed[ndxA] && packed[ndxB] && numPeaks == pyros[ndxB].getNumPeaks()) {
+         float productAB = mKernel.dot(unitPeaks, ndxA * stride,
+                                       unitPeaks, ndxB * stride, numPeaks);
+
+         return Math.max(-1.0f, Math.min(1.0f, productAB));
+      }
+
+      return Pyroprint.pearson(pyros[ndxA].getPeaks(), pyros[ndxA].getNumPeaks(),
+                               pyros[ndxB].getPeaks(), pyros[ndxB].getNumPeaks());
+   }
+
+   /*
+    * Groups the isolates' pyroprints by region and protocol and correlates
+    * each group.
+    */
+   private Map<Pyroprint, PyroSlot> correlateGroups(List<Isolate> isolates,
+                                                    ExecutorService threadPool) {
+      Map<String, List<Pyroprint>> groups = new LinkedHashMap<String, List<Pyroprint>>();
+      Map<Pyroprint, PyroSlot> pyroSlots = new IdentityHashMap<Pyroprint, PyroSlot>();
+
+      for (Isolate isolate : isolates) {
+         for (ITSRegion region : isolate.getData()) {
+            for (Pyroprint pyro : region.getData()) {
+               String groupKey = region.getName() + "/" + pyro.getProtocolId();
+               List<Pyroprint> group = groups.get(groupKey);
+
+               if (group == null) {
+                  group = new ArrayList<Pyroprint>();
+                  groups.put(groupKey, group);
+               }
+
+               pyroSlots.put(pyro, new PyroSlot(group.size()));
+               group.add(pyro);
+            }
+         }
+      }
+
+      for (List<Pyroprint> group : groups.values()) {
+         float[] groupMatrix = correlate(group, threadPool);
+
+         for (Pyroprint pyro : group) { pyroSlots.get(pyro).mGroupMatrix = groupMatrix; }
+      }
+
+      return pyroSlots;
+   }
+
+   private void combineIsolates(final List<Isolate> isolates,
+                                final Map<Pyroprint, PyroSlot> pyroSlots,
+                                final SimilarityMatrix simMatrix,
+                                ExecutorService threadPool) {
+      final int numIsolates = isolates.size();
+      List<Future<Void>> rows = new ArrayList<Future<Void>>();
+
+      for (int rowStart = 1; rowStart < numIsolates; rowStart += mTileSize) {
+         final int startB = rowStart, endB = Math.min(rowStart + mTileSize, numIsolates);
+
+         rows.add(threadPool.submit(new Callable<Void>() {
+            public Void call() {
+               for (int ndxB = startB; ndxB < endB; ndxB++) {
+                  for (int ndxA = 0; ndxA < ndxB; ndxA++) {
+                     simMatrix.set(ndxA, ndxB, isolateSimilarity(isolates.get(ndxA),
+                                                                 isolates.get(ndxB),
+                                                                 pyroSlots));
+                  }
+               }
+
+               return null;
+            }
+         }));
+      }
+
+      waitFor(rows);
+   }
+
+   /*
+    * Same arithmetic, in the same order, as Isolate.compareTo.
+    */
+   private static float isolateSimilarity(Isolate isoA, Isolate isoB,
+                                          Map<Pyroprint, PyroSlot> pyroSlots) {
+      float comparison = 0.0f;
+      byte numRegions = 0;
+
+      for (ITSRegion regionA : isoA.getData()) {
+         for (ITSRegion regionB : isoB.getData()) {
+            if (regionA.equals(regionB)) {
+               comparison += regionSimilarity(regionA, regionB, pyroSlots);
+               numRegions++;
+               break;
+            }
+         }
+      }
+
+      if (numRegions != 2) {
+         throw new IllegalArgumentException(String.format(
+            "Isolates %s and %s have %d regions in common",
+            isoA.getName(), isoB.getName(), numRegions
+         ));
+      }
+
+      return comparison / numRegions;
+   }
+
+   /*
+    * Same arithmetic, in the same order, as ITSRegion.compareTo.
+    */
+   private static float regionSimilarity(ITSRegion regionA, ITSRegion regionB,
+                                         Map<Pyroprint, PyroSlot> pyroSlots) {
+      float comparison = 0.0f;
+      int count = 0;
+
+      for (Pyroprint pyroA : regionA.getData()) {
+         PyroSlot slotA = pyroSlots.get(pyroA);
+
+         for (Pyroprint pyroB : regionB.getData()) {
+            PyroSlot slotB = pyroSlots.get(pyroB);
+            float correlation = NO_CORRELATION;
+
+            //pyroprints with different protocols are in different groups
+            if (slotA.mGroupMatrix == slotB.mGroupMatrix) {
+               if (slotA.mRowNdx == slotB.mRowNdx) {
+                  throw new IllegalArgumentException("Pyroprint " + pyroA.getName() +
+                                                     " is in both isolates");
+               }
+
+               correlation = slotA.mGroupMatrix[
+                  NNChainClusterer.triangleNdx(slotA.mRowNdx, slotB.mRowNdx)
+               ];
+            }
+
+            comparison += regionA.transformCorrelation(correlation);
+            count++;
+         }
+      }
+
+      if (count <= 0) {
+         throw new IllegalArgumentException(String.format(
+            "Region %s has no pyroprints to compare", regionA.getName()
+         ));
+      }
+
+      return regionA.transformComparison(comparison / count);
+   }
+
+   /*
+    * The regions, with their transform settings, and the protocols the
+    * isolates were compared under, in sorted order.
+    */
+   private static List<String> describeInput(List<Isolate> isolates) {
+      Set<String> regions = new TreeSet<String>(), protocols = new TreeSet<String>();
+
+      for (Isolate isolate : isolates) {
+         for (ITSRegion region : isolate.getData()) {
+            regions.add(String.format("region %s transform=%s",
+                                      region.getName(), region.getTransform()));
+
+            for (Pyroprint pyro : region.getData()) {
+               protocols.add(String.format("protocol %d:%s", pyro.getPyroLen(),
+                                           ProtocolRegistry.getPrefix(pyro.getProtocolId())));
+            }
+         }
+      }
+
+      List<String> properties = new ArrayList<String>(regions);
+      properties.addAll(protocols);
+      return properties;
+   }
+
+   /*
+    * CRC of everything the similarities are computed from. Regions and
+    * pyroprints are visited by name, since they are kept in hash sets.
+    */
+   private static long checksum(List<Isolate> isolates, List<String> properties) {
+      CRC32 crc = new CRC32();
+      DataOutputStream crcOut = new DataOutputStream(new CheckedOutputStream(
+         new OutputStream() { public void write(int dataByte) {} }, crc
+      ));
+
+      try {
+         for (String property : properties) { crcOut.writeUTF(property); }
+
+         for (Isolate isolate : isolates) {
+            crcOut.writeUTF(isolate.getName());
+
+            for (ITSRegion region : sortByName(isolate.getData())) {
+               crcOut.writeUTF(region.getName());
+
+               for (Pyroprint pyro : sortByName(region.getData())) {
+                  crcOut.writeUTF(pyro.getName());
+                  crcOut.writeByte(pyro.getPyroLen());
+                  crcOut.writeUTF(pyro.getDispSeq() != null ? pyro.getDispSeq() : "");
+
+                  for (int peakNdx = 0; peakNdx < pyro.getNumPeaks(); peakNdx++) {
+                     crcOut.writeFloat(pyro.getPeaks()[peakNdx]);
+                  }
+               }
+            }
+         }
+
+         crcOut.flush();
+      }
+      catch (IOException ioErr) {
+         throw new IllegalStateException("Could not checksum isolates", ioErr);
+      }
+
+      return crc.getValue();
+   }
+
+   private static <E extends Clusterable<?>> List<E> sortByName(Collection<E> elements) {
+      List<E> sorted = new ArrayList<E>(elements);
+
+      Collections.sort(sorted, new Comparator<E>() {
+         public int compare(E elemA, E elemB) {
+            return elemA.getName().compareTo(elemB.getName());
+         }
+      });
+
+      return sorted;
+   }
+
+   private static int matrixSize(int numElements) {
+      long matrixSize = ((long) numElements * (numElements - 1)) / 2;
+
+      if (matrixSize > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException(String.format(
+            "Too many elements (%d) for a packed similarity matrix", numElements
+         ));
+      }
+
+      return (int) matrixSize;
+   }
+
+   private static void waitFor(List<Future<Void>> tasks) {
+      try {
+         for (Future<Void> task : tasks) { task.get(); }
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while building similarity matrix",
+                                         interruptErr);
+      }
+      catch (java.util.concurrent.ExecutionException execErr) {
+         throw new IllegalStateException("Error while building similarity matrix",
+                                         execErr.getCause());
+      }
+   }
+
+   private static class PyroSlot {
+      private int mRowNdx;
+      private float[] mGroupMatrix;
+
+      private PyroSlot(int rowNdx) { mRowNdx = rowNdx; }
+   }
+}
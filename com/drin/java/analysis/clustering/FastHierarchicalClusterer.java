@@ -1,22 +1,51 @@
 package com.drin.java.analysis.clustering;
 
 import com.drin.java.clustering.FastCluster;
+import com.drin.java.clustering.FastClusterComparator;
 import com.drin.java.ontology.FastOntology;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
+import com.drin.java.analysis.clustering.BestPairSearch;
+import com.drin.java.analysis.clustering.BestPairSearch.BestPair;
+import com.drin.java.analysis.clustering.BestPairSearch.PairMetric;
+
+import com.drin.java.util.Configuration;
 
 import java.util.List;
 import java.util.ArrayList;
 
 public class FastHierarchicalClusterer {
-   //private static final ExecutorService mThreadPool = Executors.newFixedThreadPool(64);
+   private static final String PARAM_SECTION = "parameters",
+                               THREADS_ATTR  = "clustering threads";
+
+   private static final PairMetric<FastCluster> CLUSTER_METRIC = new PairMetric<FastCluster>() {
+      public float compare(FastCluster clustA, FastCluster clustB) {
+         return clustA.compareTo(clustB);
+      }
+   };
+
    protected List<FastCluster> mResultClusters;
    protected float mThresh;
+   private BestPairSearch<FastCluster> mPairSearch;
+   private FastClusterComparator mComparator;
 
    public FastHierarchicalClusterer(int dataSize, float threshold) {
       mResultClusters = new ArrayList<FastCluster>(dataSize);
       mThresh = threshold;
+
+      Integer numThreads = Configuration.getInt(PARAM_SECTION, THREADS_ATTR);
+      if (numThreads != null && numThreads.intValue() > 1) {
+         mPairSearch = new BestPairSearch<FastCluster>(numThreads.intValue());
+         mComparator = new FastClusterComparator(numThreads.intValue());
+      }
+      else {
+         mPairSearch = null;
+         mComparator = null;
+      }
+   }
+
+   public void shutdown() {
+      if (mPairSearch != null) { mPairSearch.shutdown(); }
+      if (mComparator != null) { mComparator.shutdown(); }
    }
 
    public List<FastCluster> getClusters() { return mResultClusters; }
@@ -35,24 +64,32 @@ public class FastHierarchicalClusterer {
    public void clusterData(FastOntology clustOnt) { throw new UnsupportedOperationException(); }
 
    protected void clusterDataSet(List<FastCluster> clusters, float threshold) {
-      short closeA = -1, closeB = -1;
+      int closeA = -1, closeB = -1;
       float maxSim = 0;
 
       do {
-         closeA = closeB = -1;
-         maxSim = 0;
+         if (mPairSearch != null) {
+            BestPair bestPair = mPairSearch.find(clusters, threshold, CLUSTER_METRIC);
+
+            closeA = bestPair.mClustANdx;
+            closeB = bestPair.mClustBNdx;
+         }
+         else {
+            closeA = closeB = -1;
+            maxSim = 0;
 
-         for (short ndxA = 0; ndxA < clusters.size(); ndxA++) {
-            FastCluster clustA = clusters.get(ndxA);
+            for (int ndxA = 0; ndxA < clusters.size(); ndxA++) {
+               FastCluster clustA = clusters.get(ndxA);
 
-            for (short ndxB = (short) (ndxA + 1); ndxB < clusters.size(); ndxB++) {
-               FastCluster clustB = clusters.get(ndxB);
+               for (int ndxB = ndxA + 1; ndxB < clusters.size(); ndxB++) {
+                  FastCluster clustB = clusters.get(ndxB);
 
-               float clustSim = clustA.compareTo(clustB);
-               if (clustSim > maxSim && clustSim > threshold) {
-                  closeA = ndxA;
-                  closeB = ndxB;
-                  maxSim = clustSim;
+                  float clustSim = clustA.compareTo(clustB);
+                  if (clustSim > maxSim && clustSim > threshold) {
+                     closeA = ndxA;
+                     closeB = ndxB;
+                     maxSim = clustSim;
+                  }
                }
             }
          }
@@ -64,50 +101,6 @@ public class FastHierarchicalClusterer {
       } while (closeA != -1 && closeB != -1 && clusters.size() > 1);
    }
 
-   /*
-   protected void clusterDataSet(List<FastCluster> clusters, final float threshold) {
-      final Object lockObj = new Object();
-      final float[] maxSim = new float[] { 0.0f };
-      final int[] closeA = new int[] { -1 },
-                  closeB = new int[] { -1 };
-
-      do {
-         closeA[0] = closeB[0] = -1;
-         maxSim[0] = 0.0f;
-
-         for (int ndxA = 0; ndxA < clusters.size(); ndxA++) {
-            final FastCluster clustA = clusters.get(ndxA);
-
-            for (int ndxB = ndxA + 1; ndxB < clusters.size(); ndxB++) {
-               final int tmpNdxA = ndxA, tmpNdxB = ndxB;
-               final FastCluster clustB = clusters.get(ndxB);
-
-               mThreadPool.execute(new Runnable() {
-                  public void run() {
-                     float clustSim = clustA.compareTo(clustB);
-
-                     synchronized (lockObj) {
-                        if (clustSim > maxSim[0] && clustSim > threshold) {
-                           closeA[0] = tmpNdxA;
-                           closeB[0] = tmpNdxB;
-                           maxSim[0] = clustSim;
-                        }
-                     }
-                  }
-
-               });
-            }
-         }
-
-         if (closeA[0] != -1 && closeB[0] != -1) {
-            clusters.get(closeA[0]).incorporate(clusters.get(closeB[0]));
-            clusters.remove(closeB[0]);
-         }
-
-      } while (closeA[0] != -1 && closeB[0] != -1 && clusters.size() > 1);
-   }
-   */
-
    public float getInterStrainSim() {
       float totalClusterSimilarity = 0;
       int similarityCount = 0;
@@ -115,6 +108,15 @@ public class FastHierarchicalClusterer {
       for (int clustNdxA = 0; clustNdxA < mResultClusters.size(); clustNdxA++) {
          FastCluster clustA = mResultClusters.get(clustNdxA);
 
+         if (mComparator != null) {
+            for (float clustSim : mComparator.compareAll(clustA, mResultClusters, clustNdxA + 1)) {
+               totalClusterSimilarity += clustSim;
+               similarityCount++;
+            }
+
+            continue;
+         }
+
          for (int clustNdxB = (clustNdxA + 1); clustNdxB < mResultClusters.size(); clustNdxB++) {
             FastCluster clustB = mResultClusters.get(clustNdxB);
 
@@ -129,12 +131,6 @@ public class FastHierarchicalClusterer {
       else { return -1; }
    }
 
-   /*
-   public static void shutdownThreadPool() {
-      mThreadPool.shutdown();
-   }
-   */
-
    public class FastClusterPair {
       public int mClustANdx, mClustBNdx;
       public float mClustSim;
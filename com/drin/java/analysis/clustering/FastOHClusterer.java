@@ -7,16 +7,34 @@ import com.drin.java.ontology.FastOntologyTerm;
 
 import com.drin.java.clustering.FastCluster;
 
+import com.drin.java.util.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 
 public class FastOHClusterer extends FastHierarchicalClusterer {
+   private static final String PARAM_SECTION = "parameters",
+                               ONT_THREADS_ATTR = "ontology threads";
+
    private float mAlphaThresh;
+   private int mTermThreads;
+   private ForkJoinPool mTermPool;
 
    public FastOHClusterer(short dataSize, float alphaThresh, float betaThresh) {
       super(dataSize, betaThresh);
       mAlphaThresh = alphaThresh;
+
+      Integer termThreads = Configuration.getInt(PARAM_SECTION, ONT_THREADS_ATTR);
+      mTermThreads = termThreads != null ? termThreads.intValue() : 1;
+      mTermPool = null;
    }
 
    @Override
@@ -30,7 +48,16 @@ public class FastOHClusterer extends FastHierarchicalClusterer {
          return;
       }
 
-      ontologicalCluster(clustOnt.getRoot(), mAlphaThresh);
+      if (mTermThreads > 1) {
+         mTermPool = new ForkJoinPool(mTermThreads);
+
+         try { mTermPool.invoke(new TermTask(clustOnt.getRoot(), mAlphaThresh)); }
+         finally {
+            mTermPool.shutdown();
+            mTermPool = null;
+         }
+      }
+      else { ontologicalCluster(clustOnt.getRoot(), mAlphaThresh); }
       
       if (clustOnt.getRoot().getClusters() != null) {
          mResultClusters = new ArrayList<FastCluster>(
@@ -60,11 +87,12 @@ public class FastOHClusterer extends FastHierarchicalClusterer {
       List<FastCluster> clusters = new ArrayList<FastCluster>();
 
       if (!root.getPartitions().isEmpty()) {
+         Set<FastOntologyTerm> newPartitions = clusterPartitions(root, threshold);
+
          for (Map.Entry<String, FastOntologyTerm> partition : root.getPartitions().entrySet()) {
             if (partition.getValue() == null) { continue; }
 
-            if (partition.getValue().hasNewData()) {
-               ontologicalCluster(partition.getValue(), threshold);
+            if (newPartitions.contains(partition.getValue())) {
                unclusteredData = true;
             }
 
@@ -95,4 +123,46 @@ public class FastOHClusterer extends FastHierarchicalClusterer {
       
       root.setClusters(clusters);
    }
+
+   /*
+    * Clusters every partition of root that has new data, and returns them.
+    * Partitions of a term that is not time sensitive are clustered
+    * concurrently when running on the term pool.
+    */
+   private Set<FastOntologyTerm> clusterPartitions(FastOntologyTerm root, float threshold) {
+      Set<FastOntologyTerm> newPartitions = Collections.newSetFromMap(
+         new IdentityHashMap<FastOntologyTerm, Boolean>()
+      );
+      List<TermTask> partitionTasks = new ArrayList<TermTask>();
+
+      for (FastOntologyTerm partition : root.getPartitions().values()) {
+         if (partition == null || !partition.hasNewData()) { continue; }
+
+         newPartitions.add(partition);
+         partitionTasks.add(new TermTask(partition, threshold));
+      }
+
+      if (mTermPool != null && !root.isTimeSensitive() && partitionTasks.size() > 1) {
+         ForkJoinTask.invokeAll(partitionTasks);
+      }
+      else {
+         for (TermTask partitionTask : partitionTasks) { partitionTask.compute(); }
+      }
+
+      return newPartitions;
+   }
+
+   @SuppressWarnings("serial")
+   private class TermTask extends RecursiveAction {
+      private final FastOntologyTerm mTerm;
+      private final float mThreshold;
+
+      public TermTask(FastOntologyTerm term, float threshold) {
+         mTerm = term;
+         mThreshold = threshold;
+      }
+
+      @Override
+      protected void compute() { ontologicalCluster(mTerm, mThreshold); }
+   }
 }
@@ -1,18 +1,22 @@
 package com.drin.java.analysis.clustering;
 
 import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.Dendrogram;
 import com.drin.java.ontology.Ontology;
 import com.drin.java.output.ProgressWriter;
 
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
 
 public abstract class HierarchicalClusterer implements Clusterer {
    protected String mName;
    protected float mThresh;
    protected ProgressWriter mWriter;
    protected Map<Float, List<Cluster>> mResultClusters;
+   protected Dendrogram mDendrogram;
 
    public HierarchicalClusterer(int dataSize, float threshold,
                                 ProgressWriter writer) {
@@ -21,11 +25,13 @@ public abstract class HierarchicalClusterer implements Clusterer {
       mWriter = writer;
 
       mResultClusters = new HashMap<Float, List<Cluster>>(dataSize);
+      mDendrogram = null;
    }
 
    public String getName() { return mName; }
    public float getThreshold() { return mThresh; }
    public Map<Float, List<Cluster>> getClusters() { return mResultClusters; }
+   public Dendrogram getDendrogram() { return mDendrogram; }
 
    public float getInterStrainSim() {
       float totalClusterSimilarity = 0.0f;
@@ -61,7 +67,42 @@ public abstract class HierarchicalClusterer implements Clusterer {
       mResultClusters.put(mThresh, clusters);
    }
 
+   /*
+    * Clusters the data once, down to the lowest of this clusterer's threshold
+    * and the given thresholds, recording the merges in a dendrogram. The
+    * clusters at every other threshold are cuts of that dendrogram.
+    */
+   public void clusterData(List<Cluster> clusters, List<Float> thresholds) {
+      List<Float> allThresholds = new ArrayList<Float>(thresholds);
+      allThresholds.add(mThresh);
+
+      float minThresh = Collections.min(allThresholds).floatValue();
+
+      mResultClusters.clear();
+      mDendrogram = new Dendrogram(clusters, minThresh);
+
+      clusterDataSet(clusters, minThresh, mDendrogram);
+
+      for (Float threshold : allThresholds) {
+         if (threshold.floatValue() == minThresh) {
+            mResultClusters.put(threshold, clusters);
+         }
+         else {
+            mResultClusters.put(threshold, mDendrogram.cut(threshold.floatValue()));
+         }
+      }
+   }
+
    protected void clusterDataSet(List<Cluster> clusters, float threshold) {
+      clusterDataSet(clusters, threshold, null);
+   }
+
+   /*
+    * Merges clusters until no pair is above the threshold. If a dendrogram is
+    * given, every merge is recorded in it.
+    */
+   protected void clusterDataSet(List<Cluster> clusters, float threshold,
+                                 Dendrogram dendrogram) {
       int initialSize = clusters.size();
       float iterCount = 0.0f;
       boolean combineSuccess = false;
@@ -72,6 +113,14 @@ public abstract class HierarchicalClusterer implements Clusterer {
          }
 
          ClusterPair clustPair = findCloseClusters(clusters, threshold);
+
+         if (dendrogram != null && clustPair.mClustANdx != -1 &&
+             clustPair.mClustBNdx != -1) {
+            dendrogram.addMerge(clusters.get(clustPair.mClustANdx),
+                                clusters.get(clustPair.mClustBNdx),
+                                clustPair.mClustSim);
+         }
+
          combineSuccess = combineClusters(clusters, clustPair);
 
       } while (combineSuccess && clusters.size() > 1);
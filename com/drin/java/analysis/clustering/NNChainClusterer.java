@@ -0,0 +1,216 @@
+package com.drin.java.analysis.clustering;
+
+import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.Dendrogram;
+import com.drin.java.analysis.clustering.AgglomerativeClusterer;
+
+import com.drin.java.output.ProgressWriter;
+
+import java.util.List;
+
+/**
+ * Average linkage agglomerative clustering using the nearest-neighbor chain
+ * algorithm. Instead of rescanning every pair of clusters after each merge,
+ * a chain of nearest neighbors is followed until two clusters are each
+ * other's nearest neighbor, at which point they are merged. Inter-cluster
+ * similarities are kept in a packed triangular matrix and updated with the
+ * Lance-Williams recurrence for average linkage, so clustering n clusters
+ * costs O(n^2) time instead of O(n^3).
+ *
+ * Average linkage is reducible, so the merges above the threshold are the
+ * same as those chosen by AgglomerativeClusterer; only the order in which
+ * they are performed differs.
+ *
+ * The matrix is the only copy of the inter-cluster similarities: the
+ * clusters' own cached similarity rows are turned off while they are
+ * clustered and turned back on, empty, afterwards.
+ */
+public class NNChainClusterer extends AgglomerativeClusterer {
+   private static final int NO_NEIGHBOR = -1;
+
+   private float[] mInitialSims;
+
+   public NNChainClusterer(int dataSize, float thresh, ProgressWriter writer) {
+      super(dataSize, thresh, writer);
+      mName = "NNChain Agglomerative";
+      mInitialSims = null;
+   }
+
+   /**
+    * Clusters using precomputed similarities instead of comparing the
+    * clusters. simMatrix is a packed triangular matrix, laid out by
+    * triangleNdx, over the clusters in list order. It is copied, so one
+    * matrix can be shared by several runs.
+    */
+   public void clusterData(List<Cluster> clusters, List<Float> thresholds,
+                           float[] simMatrix) {
+      long matrixSize = ((long) clusters.size() * (clusters.size() - 1)) / 2;
+
+      if (simMatrix.length != matrixSize) {
+         throw new IllegalArgumentException(String.format(
+            "Similarity matrix of size %d does not match %d clusters",
+            simMatrix.length, clusters.size()
+         ));
+      }
+
+      mInitialSims = simMatrix;
+      try { clusterData(clusters, thresholds); }
+      finally { mInitialSims = null; }
+   }
+
+   @Override
+   protected void clusterDataSet(List<Cluster> clusters, float threshold,
+                                 Dendrogram dendrogram) {
+      if (getSimilarityGraph() != null) {
+         super.clusterDataSet(clusters, threshold, dendrogram);
+         return;
+      }
+
+      int numClusters = clusters.size(), numMerges = 0, chainLen = 0;
+      float minSim = Math.max(threshold, 0.0f);
+
+      if (numClusters < 2) { return; }
+
+      Cluster[] slots = clusters.toArray(new Cluster[numClusters]);
+      boolean[] cacheSims = new boolean[numClusters];
+
+      for (int ndx = 0; ndx < numClusters; ndx++) {
+         cacheSims[ndx] = slots[ndx].getCacheSimilarities();
+         slots[ndx].setCacheSimilarities(false);
+      }
+
+      float[] simMatrix = mInitialSims != null ? mInitialSims.clone() :
+                                                 buildSimMatrix(slots);
+      int[] chain = new int[numClusters];
+
+      //alive clusters have not been merged into another cluster. searchable
+      //clusters are alive and may still find a neighbor above the threshold
+      boolean[] alive = new boolean[numClusters],
+                searchable = new boolean[numClusters];
+
+      for (int ndx = 0; ndx < numClusters; ndx++) {
+         alive[ndx] = true;
+         searchable[ndx] = true;
+      }
+
+      int startNdx = 0;
+      while (true) {
+         if (chainLen == 0) {
+            while (startNdx < numClusters && !searchable[startNdx]) { startNdx++; }
+            if (startNdx >= numClusters) { break; }
+
+            chain[chainLen++] = startNdx;
+         }
+
+         int topNdx = chain[chainLen - 1];
+         int prevNdx = chainLen > 1 ? chain[chainLen - 2] : NO_NEIGHBOR;
+
+         //the previous chain element wins ties so that the chain cannot cycle
+         int nearNdx = prevNdx;
+         float nearSim = prevNdx == NO_NEIGHBOR ? -Float.MAX_VALUE :
+                         simMatrix[triangleNdx(topNdx, prevNdx)];
+
+         for (int ndx = 0; ndx < numClusters; ndx++) {
+            if (ndx == topNdx || !searchable[ndx]) { continue; }
+
+            float clustSim = simMatrix[triangleNdx(topNdx, ndx)];
+            if (clustSim > nearSim) {
+               nearNdx = ndx;
+               nearSim = clustSim;
+            }
+         }
+
+         //Under average linkage a cluster's best similarity can only shrink
+         //as other clusters merge, so it will never join anything.
+         if (nearNdx == NO_NEIGHBOR || nearSim <= minSim) {
+            searchable[topNdx] = false;
+            chainLen--;
+            continue;
+         }
+
+         if (nearNdx != prevNdx) {
+            chain[chainLen++] = nearNdx;
+            continue;
+         }
+
+         //reciprocal nearest neighbors; keep the lower index like
+         //AgglomerativeClusterer does
+         int keepNdx = Math.min(topNdx, prevNdx), dropNdx = Math.max(topNdx, prevNdx);
+         chainLen -= 2;
+
+         updateSimilarities(simMatrix, slots, alive, keepNdx, dropNdx);
+
+         if (dendrogram != null) {
+            dendrogram.addMerge(slots[keepNdx], slots[dropNdx],
+                                simMatrix[triangleNdx(keepNdx, dropNdx)]);
+         }
+
+         slots[keepNdx].join(slots[dropNdx]);
+         alive[dropNdx] = false;
+         searchable[dropNdx] = false;
+         slots[dropNdx] = null;
+
+         if (mWriter != null) {
+            mWriter.writeProgress(((float) ++numMerges) / numClusters);
+         }
+      }
+
+      clusters.clear();
+      for (int ndx = 0; ndx < numClusters; ndx++) {
+         if (alive[ndx]) {
+            slots[ndx].setCacheSimilarities(cacheSims[ndx]);
+            clusters.add(slots[ndx]);
+         }
+      }
+
+      if (mWriter != null) { mWriter.writeProgress(1.0f); }
+   }
+
+   /*
+    * Lance-Williams update for average linkage. Must be called before the
+    * clusters are joined so that their sizes are still the pre-merge sizes.
+    */
+   private void updateSimilarities(float[] simMatrix, Cluster[] slots,
+                                   boolean[] alive, int keepNdx, int dropNdx) {
+      float keepSize = slots[keepNdx].size(), dropSize = slots[dropNdx].size();
+      float totalSize = keepSize + dropSize;
+
+      for (int ndx = 0; ndx < slots.length; ndx++) {
+         if (!alive[ndx] || ndx == keepNdx || ndx == dropNdx) { continue; }
+
+         int keepSimNdx = triangleNdx(keepNdx, ndx);
+         simMatrix[keepSimNdx] = ((keepSize * simMatrix[keepSimNdx]) +
+                                  (dropSize * simMatrix[triangleNdx(dropNdx, ndx)])) /
+                                 totalSize;
+      }
+   }
+
+   private float[] buildSimMatrix(Cluster[] slots) {
+      long matrixSize = ((long) slots.length * (slots.length - 1)) / 2;
+
+      if (matrixSize > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException(String.format(
+            "Too many clusters (%d) for a packed similarity matrix", slots.length
+         ));
+      }
+
+      float[] simMatrix = new float[(int) matrixSize];
+
+      for (int ndxB = 1; ndxB < slots.length; ndxB++) {
+         for (int ndxA = 0; ndxA < ndxB; ndxA++) {
+            simMatrix[triangleNdx(ndxA, ndxB)] = slots[ndxA].averageSimilarity(slots[ndxB]);
+         }
+      }
+
+      return simMatrix;
+   }
+
+   /*
+    * Offset of the pair (ndxA, ndxB) in a packed lower triangular matrix
+    * without its diagonal.
+    */
+   static int triangleNdx(int ndxA, int ndxB) {
+      if (ndxA < ndxB) { return ((ndxB * (ndxB - 1)) >>> 1) + ndxA; }
+      return ((ndxA * (ndxA - 1)) >>> 1) + ndxB;
+   }
+}
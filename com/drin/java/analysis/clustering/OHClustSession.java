@@ -0,0 +1,98 @@
+package com.drin.java.analysis.clustering;
+
+import com.drin.java.analysis.clustering.OHClusterer;
+
+import com.drin.java.clustering.Cluster;
+
+import com.drin.java.database.CPLOPConnection;
+
+import com.drin.java.ontology.Ontology;
+
+import com.drin.java.output.ProgressWriter;
+
+import java.sql.SQLException;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * An OHClust run that is kept around so that new data can be clustered
+ * incrementally. New data is routed through Ontology.addData, which marks the
+ * terms on the path from each new data point to the root, and only those
+ * terms are reclustered on the next update. Every other term reuses the
+ * clusters it formed in an earlier update.
+ *
+ * The time taken by each update is recorded so that it can be stored with
+ * CPLOPConnection.insertRunPerf.
+ */
+public class OHClustSession {
+   private Ontology mOntology;
+   private OHClusterer mClusterer;
+   private List<UpdatePerf> mUpdatePerfs;
+
+   public OHClustSession(Ontology ontology, float alphaThresh, float betaThresh,
+                         ProgressWriter writer) {
+      mOntology = ontology;
+      mClusterer = new OHClusterer(0, alphaThresh, betaThresh, writer);
+      mUpdatePerfs = new ArrayList<UpdatePerf>();
+   }
+
+   public Ontology getOntology() { return mOntology; }
+   public Map<Float, List<Cluster>> getClusters() { return mClusterer.getClusters(); }
+   public List<UpdatePerf> getUpdatePerfs() { return mUpdatePerfs; }
+
+   /**
+    * Adds new data to the ontology and reclusters the terms it was added to.
+    *
+    * @return int The number of data points that were added. Data points that
+    * the ontology already has are not counted.
+    */
+   public int update(List<? extends Cluster> newData) {
+      int updateSize = 0;
+
+      for (Cluster dataPoint : newData) {
+         if (mOntology.addData(dataPoint)) { updateSize++; }
+      }
+
+      long startTime = System.currentTimeMillis();
+      mClusterer.clusterData(mOntology);
+      long runTime = System.currentTimeMillis() - startTime;
+
+      mUpdatePerfs.add(new UpdatePerf(mUpdatePerfs.size(), updateSize, runTime));
+
+      return updateSize;
+   }
+
+   /**
+    * @return List<Object[]> The recorded updates as the rows expected by
+    * CPLOPConnection.insertRunPerf.
+    */
+   public List<Object[]> getRunPerfRows(int testRunId) {
+      List<Object[]> perfRows = new ArrayList<Object[]>(mUpdatePerfs.size());
+
+      for (UpdatePerf perf : mUpdatePerfs) {
+         perfRows.add(new Object[] {testRunId, perf.mUpdateId, perf.mUpdateSize,
+                                    perf.mRunTime});
+      }
+
+      return perfRows;
+   }
+
+   public void insertRunPerf(CPLOPConnection conn, int testRunId) throws SQLException {
+      if (!mUpdatePerfs.isEmpty()) { conn.insertRunPerf(getRunPerfRows(testRunId)); }
+   }
+
+   public void shutdown() { mClusterer.shutdown(); }
+
+   public static class UpdatePerf {
+      public int mUpdateId, mUpdateSize;
+      public long mRunTime;
+
+      public UpdatePerf(int updateId, int updateSize, long runTime) {
+         mUpdateId = updateId;
+         mUpdateSize = updateSize;
+         mRunTime = runTime;
+      }
+   }
+}
@@ -9,59 +9,92 @@ import com.drin.java.clustering.Cluster;
 import com.drin.java.clustering.HCluster;
 
 import com.drin.java.output.ProgressWriter;
+import com.drin.java.util.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 
 public class OHClusterer extends AgglomerativeClusterer {
+   private static final String PARAM_SECTION = "parameters",
+                               ONT_THREADS_ATTR = "ontology threads";
+
    private float mAlphaThresh;
+   private int mTermThreads;
+   private ForkJoinPool mTermPool;
 
    public OHClusterer(int dataSize, float alphaThresh, float betaThresh,
                       ProgressWriter writer) {
       super(dataSize, betaThresh, writer);
       mName = "OHClust!";
       mAlphaThresh = alphaThresh;
+
+      Integer termThreads = Configuration.getInt(PARAM_SECTION, ONT_THREADS_ATTR);
+      mTermThreads = termThreads != null ? termThreads.intValue() : 1;
+      mTermPool = null;
    }
 
    @Override
    public void clusterData(Ontology clustOnt) {
-      mResultClusters.clear();
-
-      if (clustOnt == null || clustOnt.getRoot() == null ||
-         !clustOnt.getRoot().hasNewData()) {
+      if (clustOnt == null || clustOnt.getRoot() == null) {
+         mResultClusters.clear();
          return;
       }
 
+      //nothing was added since the last run, so the last results still hold
+      if (!clustOnt.getRoot().hasNewData()) { return; }
+
       System.err.println("Beginning ontological cluster");
-      ontologicalCluster(clustOnt.getRoot(), mAlphaThresh);
+
+      if (mTermThreads > 1) {
+         mTermPool = new ForkJoinPool(mTermThreads);
+
+         try { mTermPool.invoke(new TermTask(clustOnt.getRoot(), mAlphaThresh)); }
+         finally {
+            mTermPool.shutdown();
+            mTermPool = null;
+         }
+      }
+      else { ontologicalCluster(clustOnt.getRoot(), mAlphaThresh); }
 
       if (clustOnt.getRoot().getClusters() == null) {
          System.err.printf("No clusters formed. Possible Error.\n");
          return;
       }
       
-      List<Cluster> clusters = copyClusters(clustOnt.getRoot().getClusters());
-      mResultClusters.put(mAlphaThresh, clusters);
+      //mThresh is the beta threshold. The alpha clusters are the leaves of
+      //the beta dendrogram, so both results come from a single run.
+      List<Float> thresholds = new ArrayList<Float>(1);
+      thresholds.add(mAlphaThresh);
+
+      super.clusterData(copyClusters(clustOnt.getRoot().getClusters()), thresholds);
       System.err.println("finished clustering using alpha threshold: " + mAlphaThresh);
-      
-      //mThresh is the beta threshold
-      clusters = copyClusters(clusters);
-      super.clusterDataSet(clusters, mThresh);
-      mResultClusters.put(mThresh, clusters);
       System.err.println("finished clustering using beta threshold: " + mThresh);
    }
 
+   /*
+    * Only terms with new data are reclustered. Every other term keeps the
+    * clusters from the last run, and parents copy those without changing
+    * them, so an ontology can be clustered again after data is added.
+    */
    private void ontologicalCluster(OntologyTerm root, float threshold) {
       boolean unclusteredData = false;
       List<Cluster> clusters = new ArrayList<Cluster>();
 
       if (!root.getPartitions().isEmpty()) {
+         Set<OntologyTerm> newPartitions = clusterPartitions(root, threshold);
+
          for (Map.Entry<String, OntologyTerm> partition : root.getPartitions().entrySet()) {
             if (partition.getValue() == null) { continue; }
 
-            if (partition.getValue().hasNewData()) {
-               ontologicalCluster(partition.getValue(), threshold);
+            if (newPartitions.contains(partition.getValue())) {
                unclusteredData = true;
             }
 
@@ -69,7 +102,7 @@ public class OHClusterer extends AgglomerativeClusterer {
 
             for (Cluster clust : partition.getValue().getClusters()) {
                if (clust instanceof HCluster) {
-                  clusters.add(new HCluster((HCluster) clust));
+                  clusters.add(((HCluster) clust).shallowCopy());
                }
             }
             
@@ -86,7 +119,7 @@ public class OHClusterer extends AgglomerativeClusterer {
       if (root.getData() != null && root.getData().size() > 0) {
          for (Cluster clust : root.getData()) {
             if (clust instanceof HCluster) {
-               clusters.add(new HCluster((HCluster) clust));
+               clusters.add(((HCluster) clust).shallowCopy());
             }
          }
          
@@ -96,12 +129,56 @@ public class OHClusterer extends AgglomerativeClusterer {
       root.setClusters(clusters);
    }
 
+   /*
+    * Clusters every partition of root that has new data, and returns them.
+    * Partitions only share data once root merges their clusters, so when
+    * running on the term pool the partitions of a term that is not time
+    * sensitive are clustered concurrently. Partitions of a time sensitive
+    * term are clustered in order.
+    */
+   private Set<OntologyTerm> clusterPartitions(OntologyTerm root, float threshold) {
+      Set<OntologyTerm> newPartitions = Collections.newSetFromMap(
+         new IdentityHashMap<OntologyTerm, Boolean>()
+      );
+      List<TermTask> partitionTasks = new ArrayList<TermTask>();
+
+      for (OntologyTerm partition : root.getPartitions().values()) {
+         if (partition == null || !partition.hasNewData()) { continue; }
+
+         newPartitions.add(partition);
+         partitionTasks.add(new TermTask(partition, threshold));
+      }
+
+      if (mTermPool != null && !root.isTimeSensitive() && partitionTasks.size() > 1) {
+         ForkJoinTask.invokeAll(partitionTasks);
+      }
+      else {
+         for (TermTask partitionTask : partitionTasks) { partitionTask.compute(); }
+      }
+
+      return newPartitions;
+   }
+
+   @SuppressWarnings("serial")
+   private class TermTask extends RecursiveAction {
+      private final OntologyTerm mTerm;
+      private final float mThreshold;
+
+      public TermTask(OntologyTerm term, float threshold) {
+         mTerm = term;
+         mThreshold = threshold;
+      }
+
+      @Override
+      protected void compute() { ontologicalCluster(mTerm, mThreshold); }
+   }
+
    private List<Cluster> copyClusters(List<Cluster> clusters) {
       List<Cluster> clusterCopies = new ArrayList<Cluster>(clusters.size());
       
       for (Cluster clust : clusters) {
          if (clust instanceof HCluster) {
-            clusterCopies.add(new HCluster((HCluster) clust));
+            clusterCopies.add(((HCluster) clust).shallowCopy());
          }
       }
 
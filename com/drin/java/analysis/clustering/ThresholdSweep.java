@@ -0,0 +1,310 @@
+package com.drin.java.analysis.clustering;
+
+import com.drin.java.analysis.clustering.CorrelationMatrixBuilder;
+import com.drin.java.analysis.clustering.NNChainClusterer;
+
+import com.drin.java.biology.Isolate;
+import com.drin.java.biology.ITSRegion;
+import com.drin.java.biology.Pyroprint;
+
+import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.Dendrogram;
+import com.drin.java.clustering.HCluster;
+
+import com.drin.java.database.CPLOPConnection;
+
+import com.drin.java.util.Configuration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.Scanner;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Evaluates clustering over a grid of thresholds without reloading or
+ * recomparing the isolates for every threshold. The isolates are compared
+ * once per ITSRegion transform setting into a packed similarity matrix by
+ * CorrelationMatrixBuilder, the matrix is clustered once down to the lowest
+ * threshold while recording a dendrogram, and the clusters at each threshold
+ * are cut from that dendrogram in parallel. Cutting and scoring only read the shared matrix
+ * and dendrogram.
+ */
+public class ThresholdSweep {
+   private static final String PARAM_SECTION = "parameters",
+                               TRANSFORM_KEY = "apply transform",
+                               THREADS_KEY = "clustering threads";
+
+   private static final String TABLE_HEADER = "Transform, Threshold, Clusters, " +
+                                              "Inter-strain Similarity, " +
+                                              "Matrix Time (ms), Cluster Time (ms), " +
+                                              "Cut Time (ms)\n";
+
+   private List<Isolate> mIsolates;
+   private int mNumThreads;
+
+   public ThresholdSweep(List<Isolate> isolates, int numThreads) {
+      mIsolates = isolates;
+      mNumThreads = Math.max(1, numThreads);
+   }
+
+   /**
+    * Clusters the isolates at every threshold for each transform setting.
+    *
+    * @return List<SweepResult> One result per transform setting and
+    * threshold, in the order they were given.
+    */
+   public List<SweepResult> sweep(List<Float> thresholds, List<Boolean> transforms) {
+      if (thresholds.isEmpty()) {
+         throw new IllegalArgumentException("No thresholds to sweep");
+      }
+
+      List<SweepResult> results = new ArrayList<SweepResult>(thresholds.size() * transforms.size());
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      try {
+         for (Boolean transform : transforms) {
+            results.addAll(sweepTransform(thresholds, transform.booleanValue(), threadPool));
+         }
+      }
+      finally { threadPool.shutdown(); }
+
+      return results;
+   }
+
+   private List<SweepResult> sweepTransform(List<Float> thresholds, final boolean transform,
+                                            ExecutorService threadPool) {
+      long matrixStart = System.currentTimeMillis();
+      final float[] simMatrix = buildSimMatrix(transform);
+      long matrixTime = System.currentTimeMillis() - matrixStart;
+
+      List<Cluster> clusters = new ArrayList<Cluster>(mIsolates.size());
+      final Map<Clusterable<?>, Integer> isoNdxMap =
+         new IdentityHashMap<Clusterable<?>, Integer>(mIsolates.size());
+
+      for (int isoNdx = 0; isoNdx < mIsolates.size(); isoNdx++) {
+         clusters.add(new HCluster(mIsolates.get(isoNdx)));
+         isoNdxMap.put(mIsolates.get(isoNdx), new Integer(isoNdx));
+      }
+
+      long clusterStart = System.currentTimeMillis();
+      NNChainClusterer clusterer = new NNChainClusterer(clusters.size(),
+                                                        minThreshold(thresholds), null);
+      clusterer.clusterData(clusters, new ArrayList<Float>(), simMatrix);
+      long clusterTime = System.currentTimeMillis() - clusterStart;
+
+      final Dendrogram dendrogram = clusterer.getDendrogram();
+      List<Future<SweepResult>> cuts = new ArrayList<Future<SweepResult>>(thresholds.size());
+
+      for (final Float threshold : thresholds) {
+         cuts.add(threadPool.submit(new Callable<SweepResult>() {
+            public SweepResult call() {
+               long cutStart = System.currentTimeMillis();
+               List<Cluster> cut = dendrogram.cut(threshold.floatValue());
+               float interStrainSim = interStrainSim(cut, simMatrix, isoNdxMap);
+
+               return new SweepResult(transform, threshold.floatValue(), cut,
+                                      interStrainSim,
+                                      System.currentTimeMillis() - cutStart);
+            }
+         }));
+      }
+
+      List<SweepResult> results = new ArrayList<SweepResult>(thresholds.size());
+
+      try {
+         for (Future<SweepResult> cut : cuts) {
+            SweepResult result = cut.get();
+
+            result.mMatrixTime = matrixTime;
+            result.mClusterTime = clusterTime;
+            results.add(result);
+         }
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while cutting dendrogram", interruptErr);
+      }
+      catch (java.util.concurrent.ExecutionException execErr) {
+         throw new IllegalStateException("Error while cutting dendrogram", execErr.getCause());
+      }
+
+      return results;
+   }
+
+   /*
+    * Computes the similarity of every pair of isolates with the given
+    * transform setting.
+    */
+   private float[] buildSimMatrix(boolean transform) {
+      for (Isolate isolate : mIsolates) {
+         for (ITSRegion region : isolate.getData()) {
+            region.setTransform(transform);
+         }
+      }
+
+      return new CorrelationMatrixBuilder(mNumThreads).buildIsolateMatrix(mIsolates);
+   }
+
+   /*
+    * Same measure as HierarchicalClusterer.getInterStrainSim, the mean
+    * average-linkage similarity over all pairs of clusters, read from the
+    * similarity matrix instead of comparing isolates.
+    */
+   private static float interStrainSim(List<Cluster> clusters, float[] simMatrix,
+                                       Map<Clusterable<?>, Integer> isoNdxMap) {
+      int[][] clustNdxs = new int[clusters.size()][];
+
+      for (int clustNdx = 0; clustNdx < clusters.size(); clustNdx++) {
+         List<Clusterable<?>> elements = clusters.get(clustNdx).getElements();
+         clustNdxs[clustNdx] = new int[elements.size()];
+
+         for (int elemNdx = 0; elemNdx < elements.size(); elemNdx++) {
+            clustNdxs[clustNdx][elemNdx] = isoNdxMap.get(elements.get(elemNdx)).intValue();
+         }
+      }
+
+      double totalClusterSimilarity = 0.0;
+      int similarityCount = 0;
+
+      for (int clustNdxA = 0; clustNdxA < clustNdxs.length; clustNdxA++) {
+         for (int clustNdxB = clustNdxA + 1; clustNdxB < clustNdxs.length; clustNdxB++) {
+            double clustSim = 0.0;
+
+            for (int isoNdxA : clustNdxs[clustNdxA]) {
+               for (int isoNdxB : clustNdxs[clustNdxB]) {
+                  clustSim += simMatrix[NNChainClusterer.triangleNdx(isoNdxA, isoNdxB)];
+               }
+            }
+
+            totalClusterSimilarity += clustSim / (clustNdxs[clustNdxA].length *
+                                                  clustNdxs[clustNdxB].length);
+            similarityCount++;
+         }
+      }
+
+      if (similarityCount <= 0) { return -2.0f; }
+      return (float) (totalClusterSimilarity / similarityCount);
+   }
+
+   private static float minThreshold(List<Float> thresholds) {
+      float minThresh = Float.MAX_VALUE;
+
+      for (Float threshold : thresholds) {
+         minThresh = Math.min(minThresh, threshold.floatValue());
+      }
+
+      return minThresh;
+   }
+
+   public static String toTable(List<SweepResult> results) {
+      StringBuilder table = new StringBuilder(TABLE_HEADER);
+
+      for (SweepResult result : results) {
+         table.append(String.format("%s, %.04f, %d, %.04f, %d, %d, %d\n",
+            result.mTransform, result.mThreshold, result.mClusters.size(),
+            result.mInterStrainSim, result.mMatrixTime, result.mClusterTime,
+            result.mCutTime
+         ));
+      }
+
+      return table.toString();
+   }
+
+   public static class SweepResult {
+      public boolean mTransform;
+      public float mThreshold, mInterStrainSim;
+      public List<Cluster> mClusters;
+      public long mMatrixTime, mClusterTime, mCutTime;
+
+      public SweepResult(boolean transform, float threshold, List<Cluster> clusters,
+                         float interStrainSim, long cutTime) {
+         mTransform = transform;
+         mThreshold = threshold;
+         mClusters = clusters;
+         mInterStrainSim = interStrainSim;
+         mCutTime = cutTime;
+      }
+   }
+
+   /*
+    * Usage: ThresholdSweep [-t] <isolate id file> <output file> <threshold>...
+    *
+    * -t sweeps both ITSRegion transform settings instead of only the
+    * configured one.
+    */
+   public static void main(String[] args) {
+      int argNdx = 0;
+      boolean sweepTransforms = args.length > 0 && args[0].equals("-t");
+
+      if (sweepTransforms) { argNdx++; }
+
+      if (args.length - argNdx < 3) {
+         System.err.println("Usage: ThresholdSweep [-t] <isolate id file> " +
+                            "<output file> <threshold>...");
+         System.exit(1);
+      }
+
+      Configuration.loadConfig("config.cfg");
+
+      String isoIdFile = args[argNdx++], outFile = args[argNdx++];
+      List<Float> thresholds = new ArrayList<Float>();
+      List<Boolean> transforms = new ArrayList<Boolean>();
+
+      for (; argNdx < args.length; argNdx++) {
+         thresholds.add(Float.valueOf(args[argNdx]));
+      }
+
+      if (sweepTransforms) {
+         transforms.add(Boolean.FALSE);
+         transforms.add(Boolean.TRUE);
+      }
+      else {
+         Boolean transform = Configuration.getBoolean(PARAM_SECTION, TRANSFORM_KEY);
+         transforms.add(transform != null ? transform : Boolean.FALSE);
+      }
+
+      Integer numThreads = Configuration.getInt(PARAM_SECTION, THREADS_KEY);
+      List<Isolate> isolates = null;
+
+      try {
+         Scanner fileScanner = new Scanner(new File(isoIdFile));
+         String isoIds = fileScanner.nextLine();
+         fileScanner.close();
+
+         isolates = CPLOPConnection.getConnection().getIsolateData(0, isoIds);
+      }
+      catch (Exception err) {
+         err.printStackTrace();
+         System.exit(1);
+      }
+
+      ThresholdSweep sweep = new ThresholdSweep(isolates,
+                                                numThreads != null ? numThreads.intValue() : 1);
+      String table = toTable(sweep.sweep(thresholds, transforms));
+
+      try {
+         FileWriter tableWriter = new FileWriter(new File(outFile));
+         tableWriter.write(table);
+         tableWriter.close();
+      }
+      catch (java.io.IOException ioErr) {
+         ioErr.printStackTrace();
+         System.exit(1);
+      }
+
+      System.out.print(table);
+
+      Pyroprint.closeWriter();
+      Isolate.closeWriter();
+   }
+}
@@ -0,0 +1,227 @@
+package com.drin.java.biology;
+
+import com.drin.java.biology.Isolate;
+import com.drin.java.biology.ITSRegion;
+import com.drin.java.biology.Pyroprint;
+
+import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.HCluster;
+import com.drin.java.clustering.SimilarityCache;
+
+import com.drin.java.metrics.ClusterAverageMetric;
+
+import com.drin.java.util.Configuration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that comparisons give the same results from several threads at
+ * once as from one. The same random isolates are built twice; every pair of
+ * the first copy, and a fixed list of cluster pairs, is compared on one
+ * thread, then the similarity cache is cleared and several threads compare
+ * random pairs of the second copy, sharing its isolates, pyroprints and
+ * ClusterAverageMetric. Some pyroprints are left unfinalized so that threads
+ * also race to finalize them. Any result that is not bit for bit the same as
+ * the single threaded one is a failure.
+ *
+ * Usage: ComparisonStressTest [config file] [number of isolates] [threads]
+ *        [comparisons per thread]
+ */
+public class ComparisonStressTest {
+   private static final String[] REGIONS = {"16-23", "23-5"};
+   private static final int[] PEAK_LENGTHS = {95, 93};
+   private static final String DISP_A = "AACACGCGA23(GATC)GAA",
+                               DISP_B = "CCTCTACTAGAGCG20(TCGA)TT";
+   private static final int NUM_PROFILES = 6, MAX_PYROS = 3, MAX_CLUSTER_SIZE = 4,
+                            NUM_CLUSTER_PAIRS = 500;
+   private static final long SEED = 17;
+   private static final String DEFAULT_CONFIG = "config.cfg";
+   private static final int DEFAULT_ISOLATES = 200, DEFAULT_THREADS = 16,
+                            DEFAULT_COMPARISONS = 40000;
+
+   public static void main(String[] args) {
+      Configuration.loadConfig(args.length > 0 ? args[0] : DEFAULT_CONFIG);
+
+      int numIsolates = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ISOLATES;
+      int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+      final int numComparisons = args.length > 3 ? Integer.parseInt(args[3]) :
+                                                   DEFAULT_COMPARISONS;
+
+      final int[][] clusterPairs = randomClusterPairs(numIsolates, new Random(SEED + 1));
+      final float[] expectedIsolates = new float[numIsolates * numIsolates];
+      final float[] expectedClusters = new float[clusterPairs.length];
+
+      List<Isolate> singleIsolates = randomIsolates(numIsolates, new Random(SEED));
+      ClusterAverageMetric singleMetric = new ClusterAverageMetric();
+
+      for (int ndxA = 0; ndxA < numIsolates; ndxA++) {
+         for (int ndxB = 0; ndxB < numIsolates; ndxB++) {
+            if (ndxA != ndxB) {
+               expectedIsolates[ndxA * numIsolates + ndxB] =
+                  singleIsolates.get(ndxA).compareTo(singleIsolates.get(ndxB));
+            }
+         }
+      }
+
+      for (int pairNdx = 0; pairNdx < clusterPairs.length; pairNdx++) {
+         expectedClusters[pairNdx] = compareClusters(singleMetric, singleIsolates,
+                                                     clusterPairs[pairNdx]);
+      }
+
+      //both copies have the same names, so the second must not see the first's
+      SimilarityCache.getCache().clear();
+
+      final List<Isolate> sharedIsolates = randomIsolates(numIsolates, new Random(SEED));
+      final ClusterAverageMetric sharedMetric = new ClusterAverageMetric();
+      List<Future<Integer>> workers = new ArrayList<Future<Integer>>(numThreads);
+      ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+      int numMismatches = 0;
+
+      try {
+         for (int threadNdx = 0; threadNdx < numThreads; threadNdx++) {
+            final Random random = new Random(SEED + 2 + threadNdx);
+
+            workers.add(threadPool.submit(new Callable<Integer>() {
+               public Integer call() {
+                  int mismatches = 0, numIsos = sharedIsolates.size();
+
+                  for (int compNdx = 0; compNdx < numComparisons; compNdx++) {
+                     if (random.nextInt(10) == 0) {
+                        int pairNdx = random.nextInt(clusterPairs.length);
+                        float result = compareClusters(sharedMetric, sharedIsolates,
+                                                       clusterPairs[pairNdx]);
+
+                        if (!sameBits(result, expectedClusters[pairNdx])) { mismatches++; }
+                        continue;
+                     }
+
+                     int ndxA = random.nextInt(numIsos), ndxB = random.nextInt(numIsos);
+                     if (ndxA == ndxB) { continue; }
+
+                     float result = sharedIsolates.get(ndxA).compareTo(sharedIsolates.get(ndxB));
+
+                     if (!sameBits(result, expectedIsolates[ndxA * numIsos + ndxB])) {
+                        mismatches++;
+                     }
+                  }
+
+                  return mismatches;
+               }
+            }));
+         }
+
+         for (Future<Integer> worker : workers) { numMismatches += worker.get(); }
+      }
+      catch (Exception err) {
+         err.printStackTrace();
+         System.exit(1);
+      }
+      finally { threadPool.shutdown(); }
+
+      System.out.printf("%d isolates, %d threads, %d comparisons each: %d mismatches\n",
+                        numIsolates, numThreads, numComparisons, numMismatches);
+
+      if (numMismatches > 0) { System.exit(1); }
+   }
+
+   /*
+    * Isolates with every region's pyroprints drawn around one of a few peak
+    * profiles, so that both similar and dissimilar pairs occur.
+    */
+   private static List<Isolate> randomIsolates(int numIsolates, Random random) {
+      float[][] profiles = new float[NUM_PROFILES][PEAK_LENGTHS[0]];
+      List<Isolate> isolates = new ArrayList<Isolate>(numIsolates);
+      int pyroId = 0;
+
+      for (float[] profile : profiles) {
+         for (int peakNdx = 0; peakNdx < profile.length; peakNdx++) {
+            profile[peakNdx] = random.nextFloat() * 100;
+         }
+      }
+
+      for (int isoNdx = 0; isoNdx < numIsolates; isoNdx++) {
+         Isolate isolate = new Isolate("Stress-" + isoNdx);
+
+         for (int regNdx = 0; regNdx < REGIONS.length; regNdx++) {
+            ITSRegion region = new ITSRegion(REGIONS[regNdx]);
+            int numPyros = 1 + random.nextInt(MAX_PYROS);
+
+            for (int pyroNdx = 0; pyroNdx < numPyros; pyroNdx++) {
+               int peakLen = PEAK_LENGTHS[regNdx];
+               float[] profile = profiles[random.nextInt(NUM_PROFILES)];
+               Pyroprint pyro = new Pyroprint(String.valueOf(pyroId++), (byte) peakLen,
+                                              random.nextInt(10) == 0 ? DISP_B : DISP_A);
+
+               for (int peakNdx = 0; peakNdx < peakLen; peakNdx++) {
+                  pyro.addDispensation((byte) peakNdx,
+                                       profile[peakNdx] + (float) random.nextGaussian() * 2);
+               }
+
+               if (random.nextInt(10) != 0) { pyro.finalizePeaks(); }
+
+               region.getData().add(pyro);
+            }
+
+            isolate.getData().add(region);
+         }
+
+         isolates.add(isolate);
+      }
+
+      return isolates;
+   }
+
+   /*
+    * Each pair holds the size of its first cluster followed by the indices
+    * of both clusters' isolates.
+    */
+   private static int[][] randomClusterPairs(int numIsolates, Random random) {
+      int[][] clusterPairs = new int[NUM_CLUSTER_PAIRS][];
+
+      for (int pairNdx = 0; pairNdx < NUM_CLUSTER_PAIRS; pairNdx++) {
+         int sizeA = 1 + random.nextInt(MAX_CLUSTER_SIZE);
+         int sizeB = 1 + random.nextInt(MAX_CLUSTER_SIZE);
+
+         clusterPairs[pairNdx] = new int[1 + sizeA + sizeB];
+         clusterPairs[pairNdx][0] = sizeA;
+
+         for (int elemNdx = 1; elemNdx < clusterPairs[pairNdx].length; elemNdx++) {
+            clusterPairs[pairNdx][elemNdx] = random.nextInt(numIsolates);
+         }
+      }
+
+      return clusterPairs;
+   }
+
+   private static float compareClusters(ClusterAverageMetric metric, List<Isolate> isolates,
+                                        int[] clusterPair) {
+      Cluster clustA = makeCluster(isolates, clusterPair, 1, 1 + clusterPair[0]);
+      Cluster clustB = makeCluster(isolates, clusterPair, 1 + clusterPair[0],
+                                   clusterPair.length);
+
+      metric.apply(clustA, clustB);
+      return metric.result();
+   }
+
+   private static Cluster makeCluster(List<Isolate> isolates, int[] clusterPair,
+                                      int start, int end) {
+      HCluster cluster = new HCluster(isolates.get(clusterPair[start]));
+
+      for (int elemNdx = start + 1; elemNdx < end; elemNdx++) {
+         cluster.join(new HCluster(isolates.get(clusterPair[elemNdx])));
+      }
+
+      return cluster;
+   }
+
+   private static boolean sameBits(float result, float expected) {
+      return Float.floatToRawIntBits(result) == Float.floatToRawIntBits(expected);
+   }
+}
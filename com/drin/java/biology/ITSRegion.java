@@ -1,6 +1,7 @@
 package com.drin.java.biology;
 
 import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.SimilarityCache;
 import com.drin.java.biology.Pyroprint;
 
 import com.drin.java.util.Configuration;
@@ -27,6 +28,42 @@ public class ITSRegion extends Clusterable<Pyroprint> {
       mTransform = Configuration.getBoolean(PARAMETER_SECTION, TRANSFORM_ATTR);
    }
 
+   public boolean getTransform() { return mTransform; }
+
+   /*
+    * Cached isolate similarities were computed with the old setting.
+    */
+   public void setTransform(boolean transform) {
+      if (transform != mTransform) {
+         mTransform = transform;
+         SimilarityCache.getCache().clear();
+      }
+   }
+
+   /**
+    * Applies the transform, if any, to the correlation of one pair of
+    * pyroprints before it is averaged into a region comparison.
+    */
+   public float transformCorrelation(float correlation) {
+      if (!mTransform) { return correlation; }
+      else if (correlation >= mAlpha) { return 1.0f; }
+      else if (correlation >= mBeta) { return correlation; }
+
+      return 0.0f;
+   }
+
+   /**
+    * Applies the transform, if any, to the averaged region comparison.
+    */
+   public float transformComparison(float comparison) {
+      if (mTransform) {
+         if (comparison >= mAlpha) { return 1.0f; }
+         else if (comparison < mBeta) { return 0.0f; }
+      }
+
+      return comparison;
+   }
+
    @Override
    public float compareTo(Clusterable<?> otherObj) {
       float comparison = 0.0f, correlation = 0.0f;
@@ -37,10 +74,7 @@ public class ITSRegion extends Clusterable<Pyroprint> {
             for (Pyroprint pyroB : ((ITSRegion) otherObj).getData()) {
                correlation = pyroA.compareTo(pyroB);
 
-               if (!mTransform) { comparison += correlation; }
-               else if (correlation >= mAlpha) { comparison += 1.0f; }
-               else if (correlation >= mBeta) { comparison += correlation; }
-
+               comparison += transformCorrelation(correlation);
                count++;
             }
          }
@@ -51,12 +85,7 @@ public class ITSRegion extends Clusterable<Pyroprint> {
          }
          else { comparison /= count; }
 
-         if (mTransform) {
-            if (comparison >= mAlpha) { comparison = 1.0f; }
-            else if (comparison < mBeta) { comparison = 0.0f; }
-         }
-
-         return comparison;
+         return transformComparison(comparison);
       }
 
       return -2.0f;
@@ -1,49 +1,36 @@
 package com.drin.java.biology;
 
 import com.drin.java.clustering.Clusterable;
+import com.drin.java.clustering.SimilarityCache;
 import com.drin.java.biology.ITSRegion;
 import com.drin.java.biology.Pyroprint;
 
+import com.drin.java.output.AuditLog;
+
 import java.util.Iterator;
 
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 
-
-//TODO temporary
-import java.io.File;
-import java.io.FileWriter;
-
 /**
  * Isolate represents a bacterial isolate collected by a biologist.
  *
  */
 public class Isolate extends Clusterable<ITSRegion> {
    private static final int ALPHA_NDX = 0, BETA_NDX = 1;
-   private Map<String, Float> mComparisonCache;
+   private static final SimilarityCache sSimCache = SimilarityCache.getCache();
 
-   private int mIdNum;
+   private int mIdNum, mCacheId;
 
    private String mHost, mSource, mLocation, mDate;
 
-   //TODO temporary
-   private static FileWriter debugWriter = null, regionWriter = null;
-   
-   static {
-      try {
-         debugWriter = new FileWriter(new File("isolate info.csv"));
-         regionWriter = new FileWriter(new File("its Region info.csv"));
-
-         debugWriter.write("Iso Id 1, Iso Id 2, Correlation\n");
-         regionWriter.write("Iso Id 1, Iso Id 2, ITS Region, Correlation\n");
-      }
-      catch (Exception err) {
-         err.printStackTrace();
-         System.exit(1);
-      }
-   }
+   private static final AuditLog sIsolateLog = AuditLog.open(
+      "isolate info.csv", "Iso Id 1, Iso Id 2, Correlation\n"
+   );
+   private static final AuditLog sRegionLog = AuditLog.open(
+      "its Region info.csv", "Iso Id 1, Iso Id 2, ITS Region, Correlation\n"
+   );
 
    public Isolate(String isoId) {
       this(isoId, 2);
@@ -53,7 +40,7 @@ public class Isolate extends Clusterable<ITSRegion> {
       super(isoId, new HashSet<ITSRegion>(dataSize));
 
       mIdNum = -1;
-      mComparisonCache = new HashMap<String, Float>();
+      mCacheId = sSimCache.getId(isoId);
    }
 
    public int getIdNum() { return mIdNum; }
@@ -71,91 +58,107 @@ public class Isolate extends Clusterable<ITSRegion> {
    public void setDate(String date) { mDate = date; }
    public String getDate() { return mDate; }
 
-   public void setCache(Map<String, Float> cache) { mComparisonCache = cache; }
-   public Map<String, Float> getCache() { return mComparisonCache; }
+   /**
+    * @return int This isolate's ID in the shared SimilarityCache.
+    */
+   public int getCacheId() { return mCacheId; }
+
+   /**
+    * Stores known similarities to other isolates, by name, in the shared
+    * SimilarityCache, e.g. similarities read from a CSV file.
+    */
+   public void setCache(Map<String, Float> cache) {
+      for (Map.Entry<String, Float> simEntry : cache.entrySet()) {
+         int otherId = sSimCache.getId(simEntry.getKey());
+
+         if (otherId != mCacheId && simEntry.getValue() != null) {
+            sSimCache.put(mCacheId, otherId, simEntry.getValue().floatValue());
+         }
+      }
+   }
 
    @Override
    public float compareTo(Clusterable<?> otherObj) {
-      Iterator<ITSRegion> itrA, itrB;
-      float comparison = 0.0f;
-      byte numRegions = 0;
-
       if (otherObj instanceof Isolate) {
          Isolate otherIso = (Isolate) otherObj;
 
-         if (mComparisonCache.containsKey(otherIso.getName())) {
-            Float compVal = mComparisonCache.get(otherIso.getName());
-            if (compVal != null) { return compVal.floatValue(); }
-         }
+         if (mCacheId == otherIso.mCacheId) { return computeSimilarity(otherIso); }
 
-         else if (otherIso.mComparisonCache.containsKey(this.getName())) {
-            Float compVal = otherIso.mComparisonCache.get(this.getName());
-            if (compVal != null) { return compVal.floatValue(); }
-         }
+         //rounding makes the comparison depend slightly on its direction, so
+         //a pair is always computed from its lower ID and every thread
+         //caches the same value whichever direction reaches it first
+         if (mCacheId > otherIso.mCacheId) { return otherIso.compareTo(this); }
 
-         else {
-            itrA = mData.iterator();
+         float cachedSim = sSimCache.get(mCacheId, otherIso.mCacheId);
+         if (!Float.isNaN(cachedSim)) { return cachedSim; }
 
-            while (itrA.hasNext()) {
-               ITSRegion regionA = itrA.next();
+         return sSimCache.putIfAbsent(mCacheId, otherIso.mCacheId,
+                                      computeSimilarity(otherIso));
+      }
 
-               itrB = (otherIso).getData().iterator();
-               while (itrB.hasNext()) {
-                  ITSRegion regionB = itrB.next();
+      return -2;
+   }
 
-                  if (regionA.equals(regionB)) {
-                     float regionComparison = regionA.compareTo(regionB);
+   /**
+    * Compares this isolate to another the same way compareTo does, but
+    * neither reads nor fills the SimilarityCache. Used where every pair is
+    * compared once and caching them all would take n^2 memory.
+    */
+   public float computeSimilarity(Isolate otherIso) {
+      Iterator<ITSRegion> itrA, itrB;
+      float comparison = 0.0f;
+      byte numRegions = 0;
 
-                     comparison += regionComparison;
-                     numRegions++;
+      if (mCacheId > otherIso.mCacheId) { return otherIso.computeSimilarity(this); }
 
-                     try {
-                        regionWriter.write(String.format(
-                           "%s, %s, %s, %.04f\n",
-                           this.getName(), otherObj.getName(), regionA.getName(),
-                           regionComparison
-                        ));
-                     }
-                     catch (Exception err) {
-                        err.printStackTrace();
-                        System.exit(1);
-                     }
+      itrA = mData.iterator();
 
-                     break;
-                  }
-               }
-            }
+      while (itrA.hasNext()) {
+         ITSRegion regionA = itrA.next();
 
-            if (numRegions == 2) {
-               comparison = comparison / numRegions;
-            }
-            else {
-               System.err.println("Invalid # of Regions: " + numRegions);
-               System.exit(0);
-            }
+         itrB = otherIso.getData().iterator();
+         while (itrB.hasNext()) {
+            ITSRegion regionB = itrB.next();
 
-            mComparisonCache.put(otherIso.getName(), new Float(comparison));
+            if (regionA.equals(regionB)) {
+               float regionComparison = regionA.compareTo(regionB);
 
-            try {
-               debugWriter.write(String.format(
-                  "%s, %s, %.04f\n", this.getName(), otherObj.getName(), comparison
-               ));
-            }
-            catch (Exception err) {
-               err.printStackTrace();
-               System.exit(1);
-            }
+               comparison += regionComparison;
+               numRegions++;
 
-            return comparison;
+               if (sRegionLog.sample()) {
+                  sRegionLog.record(String.format(
+                     "%s, %s, %s, %.04f\n",
+                     this.getName(), otherIso.getName(), regionA.getName(),
+                     regionComparison
+                  ));
+               }
+
+               break;
+            }
          }
       }
 
-      return -2;
+      if (numRegions == 2) {
+         comparison = comparison / numRegions;
+      }
+      else {
+         System.err.println("Invalid # of Regions: " + numRegions);
+         System.exit(0);
+      }
+
+      if (sIsolateLog.sample()) {
+         sIsolateLog.record(String.format(
+            "%s, %s, %.04f\n", this.getName(), otherIso.getName(), comparison
+         ));
+      }
+
+      return comparison;
    }
 
    public static void closeWriter() {
-      try { debugWriter.close(); regionWriter.close(); }
-      catch (Exception err) { err.printStackTrace(); System.exit(1); }
+      sIsolateLog.close();
+      sRegionLog.close();
    }
 
    @Override
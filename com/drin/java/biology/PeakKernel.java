@@ -0,0 +1,61 @@
+package com.drin.java.biology;
+
+/**
+ * Correlation arithmetic over primitive peak arrays, shared by every
+ * pyroprint comparison. The kernel is chosen once, when this class is
+ * loaded: the SIMD kernel in VectorPeakKernel if it was compiled and the
+ * jdk.incubator.vector module is available at run time
+ * (--add-modules jdk.incubator.vector), and ScalarPeakKernel otherwise.
+ */
+public abstract class PeakKernel {
+   private static final String VECTOR_KERNEL = "com.drin.java.biology.VectorPeakKernel";
+   private static final PeakKernel sKernel = selectKernel();
+
+   public static PeakKernel getKernel() { return sKernel; }
+
+   /**
+    * Pearson correlation over the first peakCount peaks of each array.
+    *
+    * @return float The correlation, or -2 if there are no peaks to compare.
+    */
+   public abstract float pearson(float[] peaksA, float[] peaksB, int peakCount);
+
+   /**
+    * Dot product of the first peakCount peaks of each array.
+    */
+   public float dot(float[] peaksA, float[] peaksB, int peakCount) {
+      return dot(peaksA, 0, peaksB, 0, peakCount);
+   }
+
+   /**
+    * Dot product of peakCount peaks starting at the given offsets, for peaks
+    * packed one pyroprint after another in a single array.
+    */
+   public abstract float dot(float[] peaksA, int offsetA, float[] peaksB, int offsetB,
+                             int peakCount);
+
+   public abstract String getName();
+
+   /*
+    * The vector kernel is loaded by name so that nothing else refers to the
+    * incubator module; if it cannot be loaded, the scalar kernel is used.
+    */
+   private static PeakKernel selectKernel() {
+      try {
+         return (PeakKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException err) { return new ScalarPeakKernel(); }
+      catch (LinkageError err) { return new ScalarPeakKernel(); }
+   }
+
+   protected static float pearson(int peakCount, float sumA, float sumB,
+                                  float squaredSumA, float squaredSumB,
+                                  float productAB) {
+      if (peakCount <= 0) { return -2; }
+
+      return ((peakCount * productAB) - (sumA * sumB)) / (float) Math.sqrt(
+         (((peakCount * squaredSumA) - (sumA * sumA)) *
+          ((peakCount * squaredSumB) - (sumB * sumB)))
+      );
+   }
+}
@@ -0,0 +1,136 @@
+package com.drin.java.biology;
+
+import com.drin.java.biology.PeakKernel;
+import com.drin.java.biology.ScalarPeakKernel;
+
+import java.util.Random;
+
+/**
+ * Times the scalar kernel against the kernel selected at startup on random
+ * pyroprints of the lengths used by the 23-5 and 16-23 regions, comparing
+ * every pair both with the full Pearson kernel and with the dot product of
+ * finalized pyroprints.
+ *
+ * Usage: PeakKernelBenchmark [number of pyroprints] [rounds]
+ *
+ * Run with --add-modules jdk.incubator.vector to benchmark VectorPeakKernel.
+ */
+public class PeakKernelBenchmark {
+   private static final int[] PEAK_LENGTHS = {93, 95};
+   private static final int DEFAULT_PYROS = 2000, DEFAULT_ROUNDS = 5;
+
+   public static void main(String[] args) {
+      int numPyros = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PYROS;
+      int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+      PeakKernel scalarKernel = new ScalarPeakKernel();
+      PeakKernel selectedKernel = PeakKernel.getKernel();
+
+      System.out.printf("Selected kernel: %s\n", selectedKernel.getName());
+
+      for (int peakLen : PEAK_LENGTHS) {
+         float[][] peaks = randomPeaks(numPyros, peakLen, new Random(peakLen));
+         float[][] unitPeaks = unitPeaks(peaks);
+
+         //the first rounds give the JIT time to compile both kernels
+         for (int round = 0; round < numRounds; round++) {
+            long scalarTime = timePearson(scalarKernel, peaks, peakLen);
+            long selectedTime = timePearson(selectedKernel, peaks, peakLen);
+            long scalarDotTime = timeDot(scalarKernel, unitPeaks, peakLen);
+            long selectedDotTime = timeDot(selectedKernel, unitPeaks, peakLen);
+
+            System.out.printf("%d peaks, round %d: pearson %d ms / %d ms (%.2fx), " +
+                              "dot %d ms / %d ms (%.2fx)\n", peakLen, round,
+                              scalarTime, selectedTime,
+                              ((float) scalarTime) / Math.max(1, selectedTime),
+                              scalarDotTime, selectedDotTime,
+                              ((float) scalarDotTime) / Math.max(1, selectedDotTime));
+         }
+
+         System.out.printf("%d peaks: max difference from scalar %.08f\n", peakLen,
+                           maxDifference(scalarKernel, selectedKernel, peaks, peakLen));
+      }
+   }
+
+   private static float[][] randomPeaks(int numPyros, int peakLen, Random random) {
+      float[][] peaks = new float[numPyros][peakLen];
+
+      for (int pyroNdx = 0; pyroNdx < numPyros; pyroNdx++) {
+         for (int peakNdx = 0; peakNdx < peakLen; peakNdx++) {
+            peaks[pyroNdx][peakNdx] = random.nextFloat() * 100;
+         }
+      }
+
+      return peaks;
+   }
+
+   private static float[][] unitPeaks(float[][] peaks) {
+      float[][] unitPeaks = new float[peaks.length][];
+
+      for (int pyroNdx = 0; pyroNdx < peaks.length; pyroNdx++) {
+         Pyroprint pyro = new Pyroprint(String.valueOf(pyroNdx),
+                                        (byte) peaks[pyroNdx].length, "");
+
+         for (int peakNdx = 0; peakNdx < peaks[pyroNdx].length; peakNdx++) {
+            pyro.addDispensation((byte) peakNdx, peaks[pyroNdx][peakNdx]);
+         }
+
+         pyro.finalizePeaks();
+         unitPeaks[pyroNdx] = pyro.getUnitPeaks();
+      }
+
+      return unitPeaks;
+   }
+
+   /*
+    * The sum of the results is printed so that the comparisons cannot be
+    * optimized away.
+    */
+   private static long timePearson(PeakKernel kernel, float[][] peaks, int peakLen) {
+      long startTime = System.currentTimeMillis();
+      float total = 0.0f;
+
+      for (int ndxA = 0; ndxA < peaks.length; ndxA++) {
+         for (int ndxB = ndxA + 1; ndxB < peaks.length; ndxB++) {
+            total += kernel.pearson(peaks[ndxA], peaks[ndxB], peakLen);
+         }
+      }
+
+      long runTime = System.currentTimeMillis() - startTime;
+      if (Float.isNaN(total)) { System.out.println("NaN correlation"); }
+
+      return runTime;
+   }
+
+   private static long timeDot(PeakKernel kernel, float[][] unitPeaks, int peakLen) {
+      long startTime = System.currentTimeMillis();
+      float total = 0.0f;
+
+      for (int ndxA = 0; ndxA < unitPeaks.length; ndxA++) {
+         for (int ndxB = ndxA + 1; ndxB < unitPeaks.length; ndxB++) {
+            total += kernel.dot(unitPeaks[ndxA], unitPeaks[ndxB], peakLen);
+         }
+      }
+
+      long runTime = System.currentTimeMillis() - startTime;
+      if (Float.isNaN(total)) { System.out.println("NaN correlation"); }
+
+      return runTime;
+   }
+
+   private static float maxDifference(PeakKernel kernelA, PeakKernel kernelB,
+                                      float[][] peaks, int peakLen) {
+      float maxDiff = 0.0f;
+
+      for (int ndxA = 0; ndxA < peaks.length; ndxA++) {
+         for (int ndxB = ndxA + 1; ndxB < peaks.length; ndxB++) {
+            maxDiff = Math.max(maxDiff, Math.abs(
+               kernelA.pearson(peaks[ndxA], peaks[ndxB], peakLen) -
+               kernelB.pearson(peaks[ndxA], peaks[ndxB], peakLen)
+            ));
+         }
+      }
+
+      return maxDiff;
+   }
+}
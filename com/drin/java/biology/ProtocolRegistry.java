@@ -0,0 +1,102 @@
+package com.drin.java.biology;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+
+/**
+ * Interns pyroprint protocols. A protocol is a pyroprint length together
+ * with the dispensation sequence, expanded, up to that length. Each distinct
+ * dispensation sequence and length is expanded once, the first time it is
+ * seen, and two pyroprints have the same protocol exactly when they have the
+ * same protocol ID, even if their compact dispensation sequences are written
+ * differently.
+ */
+public class ProtocolRegistry {
+   private static final Pattern DISP_COMP_PAT = Pattern.compile("\\d+\\([ATCG]+\\)|[ATCG]+"),
+                                REPEAT_PAT = Pattern.compile("(\\d+)\\(([ATCG]+)\\)");
+
+   private static final Map<String, Integer> sDispIds = new ConcurrentHashMap<String, Integer>();
+   private static final Map<String, Integer> sProtocolIds = new HashMap<String, Integer>();
+   private static final List<String> sPrefixes = new CopyOnWriteArrayList<String>();
+
+   /**
+    * @return int The ID of the protocol for pyroprints of the given length
+    * dispensed with the given (compact) dispensation sequence.
+    */
+   public static int getProtocolId(String disp, int pyroLen) {
+      Integer protocolId = sDispIds.get(pyroLen + ":" + disp);
+
+      if (protocolId == null) { protocolId = register(disp, pyroLen); }
+      return protocolId.intValue();
+   }
+
+   /**
+    * @return String The expanded dispensation sequence of a protocol, up to
+    * the protocol's pyroprint length.
+    */
+   public static String getPrefix(int protocolId) {
+      return sPrefixes.get(protocolId);
+   }
+
+   public static int getNumProtocols() { return sPrefixes.size(); }
+
+   /*
+    * A dispensation sequence that expands to fewer dispensations than the
+    * pyroprint length keeps its whole expansion.
+    */
+   private static synchronized Integer register(String disp, int pyroLen) {
+      String dispKey = pyroLen + ":" + disp;
+      Integer protocolId = sDispIds.get(dispKey);
+
+      if (protocolId == null) {
+         String expandedDisp = expandDisp(disp);
+         String prefix = expandedDisp.substring(0, Math.max(0, Math.min(pyroLen,
+                                                                        expandedDisp.length())));
+         String protocolKey = pyroLen + ":" + prefix;
+
+         protocolId = sProtocolIds.get(protocolKey);
+         if (protocolId == null) {
+            protocolId = new Integer(sPrefixes.size());
+
+            sProtocolIds.put(protocolKey, protocolId);
+            sPrefixes.add(prefix);
+         }
+
+         sDispIds.put(dispKey, protocolId);
+      }
+
+      return protocolId;
+   }
+
+   /**
+    * Expands repeated parts of a dispensation sequence, so "AC2(GATC)T"
+    * becomes "ACGATCGATCT".
+    */
+   public static String expandDisp(String disp) {
+      StringBuilder expandedDisp = new StringBuilder();
+      Matcher dispCompMatch = DISP_COMP_PAT.matcher(disp);
+
+      while (dispCompMatch.find()) {
+         Matcher repeatMatch = REPEAT_PAT.matcher(dispCompMatch.group());
+
+         if (repeatMatch.matches()) {
+            int numRepeats = Integer.parseInt(repeatMatch.group(1));
+            String repeat = repeatMatch.group(2);
+
+            for (int repNdx = 0; repNdx < numRepeats; repNdx++) {
+               expandedDisp.append(repeat);
+            }
+         }
+         else { expandedDisp.append(dispCompMatch.group()); }
+      }
+
+      return expandedDisp.toString();
+   }
+}
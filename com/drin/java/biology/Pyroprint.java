@@ -1,17 +1,15 @@
 package com.drin.java.biology;
 
+import com.drin.java.biology.PeakKernel;
+import com.drin.java.biology.ProtocolRegistry;
+
 import com.drin.java.clustering.Clusterable;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.ArrayList;
+import com.drin.java.output.AuditLog;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.AbstractList;
+import java.util.Arrays;
 
-//TODO remove this after verifying issues with protocol comparisons
-import java.io.File;
-import java.io.FileWriter;
 
 /**
  * A Pyroprint is the result of pyrosequencing each replicate of a specified
@@ -24,34 +22,92 @@ import java.io.FileWriter;
  * analyzed.
  */
 public class Pyroprint extends Clusterable<Float> {
+   private static final PeakKernel sKernel = PeakKernel.getKernel();
+
    private String mDisp;
    private byte mPyroLen;
-   private int mPeakCount;
-   private float mPyroASum, mPyroBSum, mProductAB,
-                  mPyroASquaredSum, mPyroBSquaredSum;
-
-   //TODO temporary
-   private static FileWriter debugWriter = null;
-   
-   static {
-      try {
-         debugWriter = new FileWriter(new File("protocol info.csv"));
-         debugWriter.write("Pyro Id 1, Pyro Id 2, Short Disp 1, Short Disp 2, Long Disp 1, Long Disp 2, Match?\n");
-      }
-      catch (Exception err) {
-         err.printStackTrace();
-         System.exit(1);
-      }
-   }
+   private int mProtocolId;
+   private float[] mPeaks;
+   private volatile float[] mUnitPeaks;
+   private int mNumPeaks;
+
+   private static final AuditLog sProtocolLog = AuditLog.open(
+      "protocol info.csv",
+      "Pyro Id 1, Short Disp 1, Long Disp 1, Pyro Id 2, Short Disp 2, Long Disp 2, Match?\n"
+   );
 
    public Pyroprint(String pyroId, byte pyroLen, String disp) {
-      super(pyroId, new ArrayList<Float>(pyroLen));
+      super(pyroId, null);
       mDisp = disp;
       mPyroLen = pyroLen;
+      mProtocolId = ProtocolRegistry.getProtocolId(disp, pyroLen);
+
+      mPeaks = new float[Math.max(0, (int) pyroLen)];
+      mUnitPeaks = null;
+      mNumPeaks = 0;
+      mData = new PeakList();
    }
 
    public byte getPyroLen() { return mPyroLen; }
 
+   /**
+    * Get the peak heights of this pyroprint. Only the first getNumPeaks()
+    * values have been dispensed. The array is not copied and must not be
+    * modified.
+    *
+    * @return float[] The peak heights of this pyroprint, in dispensation
+    * order.
+    */
+   public float[] getPeaks() { return mPeaks; }
+   public int getNumPeaks() { return mNumPeaks; }
+
+   @Override
+   public int size() { return mNumPeaks; }
+
+   /**
+    * Precomputes this pyroprint's peaks centered on their mean and scaled to
+    * unit length, so that the correlation with another finalized pyroprint
+    * of the same length is their dot product. Should be called once all peaks
+    * have been dispensed; dispensing another peak undoes it.
+    */
+   public void finalizePeaks() {
+      double peakMean = 0.0, peakNorm = 0.0;
+
+      for (int peakNdx = 0; peakNdx < mNumPeaks; peakNdx++) {
+         peakMean += mPeaks[peakNdx];
+      }
+      peakMean /= Math.max(1, mNumPeaks);
+
+      for (int peakNdx = 0; peakNdx < mNumPeaks; peakNdx++) {
+         double centeredPeak = mPeaks[peakNdx] - peakMean;
+         peakNorm += centeredPeak * centeredPeak;
+      }
+      peakNorm = Math.sqrt(peakNorm);
+
+      //a flat pyroprint has no correlation with anything, so it is left to
+      //the full calculation
+      if (mNumPeaks == 0 || peakNorm == 0.0) {
+         mUnitPeaks = null;
+         return;
+      }
+
+      //only published once it is filled, for threads already comparing
+      float[] unitPeaks = new float[mNumPeaks];
+      for (int peakNdx = 0; peakNdx < mNumPeaks; peakNdx++) {
+         unitPeaks[peakNdx] = (float) ((mPeaks[peakNdx] - peakMean) / peakNorm);
+      }
+
+      mUnitPeaks = unitPeaks;
+   }
+
+   public boolean isFinalized() { return mUnitPeaks != null; }
+
+   /**
+    * @return float[] The centered unit peak vector computed by finalizePeaks,
+    * or null if this pyroprint has not been finalized.
+    */
+   public float[] getUnitPeaks() { return mUnitPeaks; }
+
    /**
     * Get the dispensation sequence used to construct this pyroprint.
     *
@@ -59,6 +115,13 @@ public class Pyroprint extends Clusterable<Float> {
     */
    public String getDispSeq() { return mDisp; }
 
+   /**
+    * @return int The ID that ProtocolRegistry gave this pyroprint's length
+    * and dispensation sequence. Two pyroprints have the same protocol
+    * exactly when they have the same protocol ID.
+    */
+   public int getProtocolId() { return mProtocolId; }
+
    /**
     * Check to see if this Pyroprint has the same protocol parameters as the
     * pyroprint being compared to.
@@ -69,34 +132,26 @@ public class Pyroprint extends Clusterable<Float> {
     * protocol parameters match the other pyroprint's protocol parameters.
     */
    public boolean hasSameProtocol(Pyroprint other) {
-      boolean sameDisp = expandDisp(mDisp).substring(0, mPyroLen).equals(
-         expandDisp(other.mDisp).substring(0, mPyroLen)
-      );
+      boolean sameProtocol = mProtocolId == other.mProtocolId;
 
-      try {
-         debugWriter.write(String.format(
+      if (sProtocolLog.sample()) {
+         sProtocolLog.record(String.format(
             "%s, %s, %s, %s, %s, %s, %s\n",
-            this.getName(), mDisp, expandDisp(mDisp).substring(0, mPyroLen - 1),
-            other.getName(), other.mDisp, expandDisp(other.mDisp).substring(0, mPyroLen - 1),
-            String.valueOf(mPyroLen == other.mPyroLen && sameDisp)
+            this.getName(), mDisp, ProtocolRegistry.getPrefix(mProtocolId),
+            other.getName(), other.mDisp, ProtocolRegistry.getPrefix(other.mProtocolId),
+            String.valueOf(sameProtocol)
          ));
       }
-      catch (Exception err) {
-         err.printStackTrace();
-         System.exit(1);
-      }
 
-      return mPyroLen == other.mPyroLen && sameDisp;
+      return sameProtocol;
    }
 
-   public static void closeWriter() {
-      try { debugWriter.close(); }
-      catch (Exception err) { err.printStackTrace(); System.exit(1); }
-   }
+   public static void closeWriter() { sProtocolLog.close(); }
 
    public boolean addDispensation(byte position, float pHeight) {
-      if (position == mData.size() && position < mPyroLen) {
-         mData.add(new Float(pHeight));
+      if (position == mNumPeaks && position < mPyroLen) {
+         mPeaks[mNumPeaks++] = pHeight;
+         mUnitPeaks = null;
          return true;
       }
 
@@ -105,87 +160,64 @@ public class Pyroprint extends Clusterable<Float> {
 
    @Override
    public float compareTo(Clusterable<?> otherObj) {
-      float peakA = 0.0f, peakB = 0.0f;
-
-      mPyroASum = mPyroBSum = 0.0f;
-      mPyroASquaredSum = mPyroBSquaredSum = mProductAB = 0.0f;
-      mPeakCount = 0;
-
       if (otherObj instanceof Pyroprint && hasSameProtocol((Pyroprint) otherObj)) {
-         Iterator<Float> itrA = mData.iterator(),
-                         itrB = ((Pyroprint) otherObj).mData.iterator();
-
-         while (itrA.hasNext() && itrB.hasNext()) {
-            peakA = itrA.next().floatValue();
-            peakB = itrB.next().floatValue();
-
-            mPyroASum += peakA;
-            mPyroBSum += peakB;
-            
-            mPyroASquaredSum += peakA * peakA;
-            mPyroBSquaredSum += peakB * peakB;
-            
-            mProductAB += peakA * peakB;
-            mPeakCount++;
-
-            /*
-            if (this.getName().equals("8522") &&
-                (otherObj.getName().equals("6188") || 
-                 otherObj.getName().equals("7516") || 
-                 otherObj.getName().equals("7517"))) {
-
-               System.out.printf("Pyroprint A (%s), Pyroprint B (%s)\n" +
-                  "Peak Heights: %.04f, %.04f\n" +
-                  "Peak Height Sums: %.04f, %.04f\n" +
-                  "Peak Height Squared Sums: %.04f, %.04f\n" +
-                  "Peak Height Product: %.04f\n" +
-                  "Peak count: %d\n",
-                  this.getName(), otherObj.getName(),
-                  peakA, peakB, mPyroASum, mPyroBSum,
-                  mPyroASquaredSum, mPyroBSquaredSum,
-                  mProductAB, mPeakCount
-               );
-            }
-            */
+         Pyroprint otherPyro = (Pyroprint) otherObj;
+         float[] unitPeaks = mUnitPeaks, otherUnitPeaks = otherPyro.mUnitPeaks;
+         float pearson = 0.0f;
+
+         //the unit vectors only describe all of each pyroprint's peaks, so
+         //pyroprints of different lengths compare their common prefix
+         if (unitPeaks != null && otherUnitPeaks != null &&
+             unitPeaks.length == otherUnitPeaks.length) {
+            pearson = unitPearson(unitPeaks, otherUnitPeaks);
+         }
+         else {
+            pearson = pearson(mPeaks, mNumPeaks, otherPyro.mPeaks, otherPyro.mNumPeaks);
          }
 
-         if (mPeakCount > 0) {
-            float pearson = 
-               ((mPeakCount * mProductAB) - (mPyroASum * mPyroBSum))/ (float) Math.sqrt(
-                (((mPeakCount * mPyroASquaredSum) - (mPyroASum * mPyroASum)) *
-                 ((mPeakCount * mPyroBSquaredSum) - (mPyroBSum * mPyroBSum)))
-            );
-
-            /*
-            if (this.getName().equals("8522") &&
-                (otherObj.getName().equals("6188") || 
-                 otherObj.getName().equals("7516") || 
-                 otherObj.getName().equals("7517"))) {
-
-               System.out.printf("Pyroprint A (%s), Pyroprint B (%s)\n" +
-                  "Pearson Correlation: %.04f\n",
-                  this.getName(), otherObj.getName(), pearson
-               );
-            }
-            */
-
-            if (pearson > 1) {
-               System.err.println("Pearson greater than 1?!");
-               System.exit(0);
-            }
-
-            return pearson;
+         if (pearson > 1) {
+            System.err.println("Pearson greater than 1?!");
+            System.exit(0);
          }
+
+         return pearson;
       }
 
       return -2;
    }
 
+   /**
+    * Pearson correlation of two centered unit vectors of the same length,
+    * which is their dot product. Rounding can put it just outside [-1, 1],
+    * so it is clamped.
+    */
+   public static float unitPearson(float[] unitPeaksA, float[] unitPeaksB) {
+      float productAB = sKernel.dot(unitPeaksA, unitPeaksB, unitPeaksA.length);
+
+      return Math.max(-1.0f, Math.min(1.0f, productAB));
+   }
+
+   /**
+    * Pearson correlation over the peaks the two pyroprints have in common,
+    * computed by the PeakKernel selected at startup.
+    *
+    * @return float The correlation, or -2 if there are no peaks to compare.
+    */
+   public static float pearson(float[] peaksA, int numPeaksA, float[] peaksB, int numPeaksB) {
+      return sKernel.pearson(peaksA, peaksB, Math.min(numPeaksA, numPeaksB));
+   }
+
    @Override
    public Pyroprint deepCopy() {
       Pyroprint newPyro = new Pyroprint(mName, mPyroLen, mDisp);
 
-      for (Float peak : mData) { newPyro.getData().add(new Float(peak.floatValue())); }
+      newPyro.mPeaks = Arrays.copyOf(mPeaks, mPeaks.length);
+      newPyro.mNumPeaks = mNumPeaks;
+
+      float[] unitPeaks = mUnitPeaks;
+      if (unitPeaks != null) {
+         newPyro.mUnitPeaks = Arrays.copyOf(unitPeaks, unitPeaks.length);
+      }
 
       return newPyro;
    }
@@ -194,30 +226,29 @@ public class Pyroprint extends Clusterable<Float> {
    public String toString() {
       String peaks = "";
 
-      for (Float peak : mData) { peaks += ", " + peak.floatValue(); }
+      for (int peakNdx = 0; peakNdx < mNumPeaks; peakNdx++) {
+         peaks += ", " + mPeaks[peakNdx];
+      }
 
       return String.format("%s: %s\n\t%s", this.getName(), mDisp,
                            peaks.substring(2));
    }
 
-   private String expandDisp(String disp) {
-      String expandedDisp = "";
-
-      Pattern dispCompPat = Pattern.compile("\\d+\\([ATCG]+\\)|[ATCG]+");
-      Matcher dispCompMatch = dispCompPat.matcher(disp);
-
-      Pattern repPat = Pattern.compile("(\\d+)\\(([ATCG]+)\\)");
-      while (dispCompMatch.find()) {
-         Matcher repeatMatch = repPat.matcher(dispCompMatch.group());
-
-         if (repeatMatch.matches()) {
-            for (int repNdx = 0; repNdx < Integer.parseInt(repeatMatch.group(1)); repNdx++) {
-               expandedDisp += repeatMatch.group(2);
-            }
+   /*
+    * Read-only view of the dispensed peaks for code that still uses
+    * getData().
+    */
+   private class PeakList extends AbstractList<Float> {
+      @Override
+      public Float get(int peakNdx) {
+         if (peakNdx < 0 || peakNdx >= mNumPeaks) {
+            throw new IndexOutOfBoundsException(String.valueOf(peakNdx));
          }
-         else { expandedDisp += dispCompMatch.group(); }
+
+         return new Float(mPeaks[peakNdx]);
       }
 
-      return expandedDisp;
+      @Override
+      public int size() { return mNumPeaks; }
    }
 }
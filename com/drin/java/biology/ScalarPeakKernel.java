@@ -0,0 +1,41 @@
+package com.drin.java.biology;
+
+import com.drin.java.biology.PeakKernel;
+
+/**
+ * Plain loop over the peaks, accumulating in the same order as the original
+ * pyroprint comparison.
+ */
+public class ScalarPeakKernel extends PeakKernel {
+   public String getName() { return "Scalar"; }
+
+   public float pearson(float[] peaksA, float[] peaksB, int peakCount) {
+      float sumA = 0.0f, sumB = 0.0f, productAB = 0.0f,
+            squaredSumA = 0.0f, squaredSumB = 0.0f;
+
+      for (int peakNdx = 0; peakNdx < peakCount; peakNdx++) {
+         float peakA = peaksA[peakNdx], peakB = peaksB[peakNdx];
+
+         sumA += peakA;
+         sumB += peakB;
+
+         squaredSumA += peakA * peakA;
+         squaredSumB += peakB * peakB;
+
+         productAB += peakA * peakB;
+      }
+
+      return pearson(peakCount, sumA, sumB, squaredSumA, squaredSumB, productAB);
+   }
+
+   public float dot(float[] peaksA, int offsetA, float[] peaksB, int offsetB,
+                    int peakCount) {
+      float productAB = 0.0f;
+
+      for (int peakNdx = 0; peakNdx < peakCount; peakNdx++) {
+         productAB += peaksA[offsetA + peakNdx] * peaksB[offsetB + peakNdx];
+      }
+
+      return productAB;
+   }
+}
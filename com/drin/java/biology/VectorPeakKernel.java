@@ -0,0 +1,83 @@
+package com.drin.java.biology;
+
+import com.drin.java.biology.PeakKernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernel using the preferred FloatVector species of the running CPU.
+ * Whole vectors of peaks are accumulated lane-wise and reduced once at the
+ * end; the remaining peaks are accumulated one at a time. Sums are added in a
+ * different order than ScalarPeakKernel, so results can differ from it in
+ * the last bits.
+ *
+ * Needs jdk.incubator.vector to compile and run; PeakKernel falls back to
+ * ScalarPeakKernel without it.
+ */
+public class VectorPeakKernel extends PeakKernel {
+   private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+   public String getName() { return "Vector (" + SPECIES.length() + " lanes)"; }
+
+   public float pearson(float[] peaksA, float[] peaksB, int peakCount) {
+      FloatVector sumVecA = FloatVector.zero(SPECIES), sumVecB = FloatVector.zero(SPECIES),
+                  squaredVecA = FloatVector.zero(SPECIES), squaredVecB = FloatVector.zero(SPECIES),
+                  productVec = FloatVector.zero(SPECIES);
+      int vectorEnd = SPECIES.loopBound(peakCount), peakNdx = 0;
+
+      for (; peakNdx < vectorEnd; peakNdx += SPECIES.length()) {
+         FloatVector vecA = FloatVector.fromArray(SPECIES, peaksA, peakNdx);
+         FloatVector vecB = FloatVector.fromArray(SPECIES, peaksB, peakNdx);
+
+         sumVecA = sumVecA.add(vecA);
+         sumVecB = sumVecB.add(vecB);
+
+         squaredVecA = vecA.fma(vecA, squaredVecA);
+         squaredVecB = vecB.fma(vecB, squaredVecB);
+
+         productVec = vecA.fma(vecB, productVec);
+      }
+
+      float sumA = sumVecA.reduceLanes(VectorOperators.ADD),
+            sumB = sumVecB.reduceLanes(VectorOperators.ADD),
+            squaredSumA = squaredVecA.reduceLanes(VectorOperators.ADD),
+            squaredSumB = squaredVecB.reduceLanes(VectorOperators.ADD),
+            productAB = productVec.reduceLanes(VectorOperators.ADD);
+
+      for (; peakNdx < peakCount; peakNdx++) {
+         float peakA = peaksA[peakNdx], peakB = peaksB[peakNdx];
+
+         sumA += peakA;
+         sumB += peakB;
+
+         squaredSumA += peakA * peakA;
+         squaredSumB += peakB * peakB;
+
+         productAB += peakA * peakB;
+      }
+
+      return pearson(peakCount, sumA, sumB, squaredSumA, squaredSumB, productAB);
+   }
+
+   public float dot(float[] peaksA, int offsetA, float[] peaksB, int offsetB,
+                    int peakCount) {
+      FloatVector productVec = FloatVector.zero(SPECIES);
+      int vectorEnd = SPECIES.loopBound(peakCount), peakNdx = 0;
+
+      for (; peakNdx < vectorEnd; peakNdx += SPECIES.length()) {
+         productVec = FloatVector.fromArray(SPECIES, peaksA, offsetA + peakNdx).fma(
+            FloatVector.fromArray(SPECIES, peaksB, offsetB + peakNdx), productVec
+         );
+      }
+
+      float productAB = productVec.reduceLanes(VectorOperators.ADD);
+
+      for (; peakNdx < peakCount; peakNdx++) {
+         productAB += peaksA[offsetA + peakNdx] * peaksB[offsetB + peakNdx];
+      }
+
+      return productAB;
+   }
+}
@@ -5,20 +5,23 @@ import com.drin.java.clustering.Clusterable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 
 public abstract class Cluster {
    //private static final ExecutorService mThreadPool = Executors.newFixedThreadPool(64);
-   private static int CLUST_ID = 1;
+   //clusters may be created concurrently, e.g. by parallel OHClust
+   private static final AtomicInteger CLUST_ID = new AtomicInteger(1);
 
    protected int mId, mSize;
 
    protected List<Clusterable<?>> mElements;
-   protected Map<Integer, Float> mSimCache;
+   protected Map<Cluster, Float> mSimCache;
 
    protected String[] mMetaLabels;
    protected float mDiameter, mMean;
@@ -28,7 +31,7 @@ public abstract class Cluster {
       mId = clustId;
 
       mElements = new ArrayList<Clusterable<?>>(clustSize);
-      mSimCache = new HashMap<Integer, Float>();
+      mSimCache = new ConcurrentHashMap<Cluster, Float>();
       mMetaLabels = null;
 
       mSize = 0;
@@ -38,7 +41,7 @@ public abstract class Cluster {
    }
 
    public Cluster(int clustSize) {
-      this(CLUST_ID++, clustSize);
+      this(CLUST_ID.getAndIncrement(), clustSize);
    }
 
    public Cluster(boolean cacheSims, int clustSize) {
@@ -48,13 +51,14 @@ public abstract class Cluster {
    }
 
    public Cluster(Cluster oldCluster) {
-      this(CLUST_ID++, oldCluster.size());
+      this(CLUST_ID.getAndIncrement(), oldCluster.size());
 
       for (Clusterable<?> oldElem : oldCluster.getElements()) {
          mElements.add(oldElem.deepCopy());
       }
 
       mSize = mElements.size();
+      mCacheSimilarities = oldCluster.mCacheSimilarities;
    }
 
    /*
@@ -66,7 +70,7 @@ public abstract class Cluster {
 
    public abstract void join(Cluster otherClust);
 
-   public static void resetClusterIDs() { Cluster.CLUST_ID = 1; }
+   public static void resetClusterIDs() { Cluster.CLUST_ID.set(1); }
    //public static void shutdownThreadPool() { mThreadPool.shutdown(); }
 
    public int getId() { return mId; }
@@ -119,6 +123,29 @@ public abstract class Cluster {
    }
 
    public float compareTo(Cluster otherClust) {
+      if (mCacheSimilarities) {
+         Float cachedSim = mSimCache.get(otherClust);
+         if (cachedSim != null) { return cachedSim.floatValue(); }
+      }
+
+      float clustSim = averageSimilarity(otherClust);
+
+      //both rows are needed to update the similarity after a join
+      if (clustSim != -2 && mCacheSimilarities && otherClust.mCacheSimilarities) {
+         mSimCache.put(otherClust, new Float(clustSim));
+         otherClust.mSimCache.put(this, new Float(clustSim));
+      }
+
+      return clustSim;
+   }
+
+   /**
+    * Average linkage similarity of the two clusters, computed from their
+    * elements without reading or filling either cluster's cached row.
+    *
+    * @return float The similarity, or -2 if either cluster is empty.
+    */
+   public float averageSimilarity(Cluster otherClust) {
       int count = 0;
       float comparison = 0.0f;
 
@@ -129,15 +156,65 @@ public abstract class Cluster {
          }
       }
 
-      if (count > 0) {
-         if (mCacheSimilarities) {
-            mSimCache.put(new Integer(otherClust.getId()),
-                           new Float(comparison / count));
+      if (count > 0) { return comparison / count; }
+      return -2;
+   }
+
+   public boolean getCacheSimilarities() { return mCacheSimilarities; }
+
+   /**
+    * Turns this cluster's cached similarity row on or off. Turning it off
+    * drops the row, and this cluster from its neighbors' rows, so that a
+    * clusterer that keeps its own similarities does not also pay for them.
+    */
+   public void setCacheSimilarities(boolean cacheSims) {
+      if (!cacheSims) {
+         for (Cluster neighbor : mSimCache.keySet()) { neighbor.mSimCache.remove(this); }
+         mSimCache.clear();
+      }
+
+      mCacheSimilarities = cacheSims;
+   }
+
+   /*
+    * Lance-Williams update of the cached similarity row for average linkage:
+    * sim(A + B, C) = (|A| * sim(A, C) + |B| * sim(B, C)) / (|A| + |B|)
+    *
+    * This must be called before otherClust's elements are joined into this
+    * cluster so that the sizes are still the pre-merge sizes. Neighbors that
+    * were only compared to one of the two clusters are dropped from the row
+    * and will be recomputed when next compared.
+    */
+   protected void updateSimilarities(Cluster otherClust) {
+      float sizeA = mSize, sizeB = otherClust.mSize;
+      Iterator<Map.Entry<Cluster, Float>> simItr = mSimCache.entrySet().iterator();
+
+      while (simItr.hasNext()) {
+         Map.Entry<Cluster, Float> simEntry = simItr.next();
+         Cluster neighbor = simEntry.getKey();
+         Float otherSim = otherClust.mSimCache.get(neighbor);
+
+         if (neighbor == otherClust) { simItr.remove(); }
+         else if (otherSim == null) {
+            simItr.remove();
+            neighbor.mSimCache.remove(this);
          }
+         else {
+            Float clustSim = new Float(
+               ((sizeA * simEntry.getValue().floatValue()) +
+                (sizeB * otherSim.floatValue())) / (sizeA + sizeB)
+            );
+
+            simEntry.setValue(clustSim);
+            neighbor.mSimCache.put(this, clustSim);
+         }
+      }
 
-         return comparison / count;
+      for (Cluster neighbor : otherClust.mSimCache.keySet()) {
+         neighbor.mSimCache.remove(otherClust);
       }
-      return -2;
+
+      otherClust.mSimCache.clear();
    }
 
    @Override
@@ -149,6 +226,9 @@ public abstract class Cluster {
       return false;
    }
 
+   @Override
+   public int hashCode() { return mId; }
+
    @Override
    public String toString() {
       String elements = "";
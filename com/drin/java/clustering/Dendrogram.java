@@ -0,0 +1,128 @@
+package com.drin.java.clustering;
+
+import com.drin.java.clustering.Cluster;
+import com.drin.java.clustering.HCluster;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The merge history of a hierarchical clustering run. The clusters the run
+ * started from are the leaves of the dendrogram, and every merge is recorded
+ * as the pair of leaf slots that were joined along with their similarity.
+ *
+ * Average linkage never merges two clusters at a higher similarity than a
+ * merge that produced either of them, so the clusters at any threshold at or
+ * above the one the run stopped at are a cut of this history: the leaves
+ * joined by every merge whose similarity is above that threshold.
+ */
+public class Dendrogram {
+   private List<HCluster> mLeaves;
+   private Map<Cluster, Integer> mSlots;
+   private float mThreshold;
+
+   private int mNumMerges;
+   private int[] mMergeA, mMergeB;
+   private float[] mMergeSim;
+
+   /**
+    * Creates an empty merge history for a run over the given clusters. The
+    * clusters must not have been joined with anything yet.
+    *
+    * @param clusters The clusters the run starts from.
+    * @param threshold The threshold the run stops at.
+    */
+   public Dendrogram(List<Cluster> clusters, float threshold) {
+      mLeaves = new ArrayList<HCluster>(clusters.size());
+      mSlots = new IdentityHashMap<Cluster, Integer>(clusters.size());
+      mThreshold = threshold;
+
+      for (Cluster clust : clusters) {
+         if (!(clust instanceof HCluster)) {
+            throw new IllegalArgumentException("Dendrograms only support HClusters");
+         }
+
+         mSlots.put(clust, new Integer(mLeaves.size()));
+         mLeaves.add(((HCluster) clust).shallowCopy());
+      }
+
+      mNumMerges = 0;
+      mMergeA = new int[Math.max(1, clusters.size() - 1)];
+      mMergeB = new int[mMergeA.length];
+      mMergeSim = new float[mMergeA.length];
+   }
+
+   public float getThreshold() { return mThreshold; }
+   public int getNumLeaves() { return mLeaves.size(); }
+   public int getNumMerges() { return mNumMerges; }
+
+   public int getMergeA(int mergeNdx) { return mMergeA[mergeNdx]; }
+   public int getMergeB(int mergeNdx) { return mMergeB[mergeNdx]; }
+   public float getMergeSim(int mergeNdx) { return mMergeSim[mergeNdx]; }
+
+   /**
+    * Records that clustB was joined into clustA. Must be called before
+    * clustB is discarded by the clusterer.
+    */
+   public void addMerge(Cluster clustA, Cluster clustB, float clustSim) {
+      Integer slotA = mSlots.get(clustA), slotB = mSlots.remove(clustB);
+
+      if (slotA == null || slotB == null) {
+         throw new IllegalArgumentException(String.format(
+            "Merged clusters %d and %d are not in this dendrogram",
+            clustA.getId(), clustB.getId()
+         ));
+      }
+
+      mMergeA[mNumMerges] = slotA.intValue();
+      mMergeB[mNumMerges] = slotB.intValue();
+      mMergeSim[mNumMerges++] = clustSim;
+   }
+
+   /**
+    * Builds the clusters formed by every merge above the given threshold.
+    * The clusters are new objects that share their elements with the
+    * clusters that were clustered.
+    */
+   public List<Cluster> cut(float threshold) {
+      if (threshold < mThreshold) {
+         throw new IllegalArgumentException(String.format(
+            "Cannot cut at %.04f, clustering stopped at %.04f", threshold, mThreshold
+         ));
+      }
+
+      HCluster[] slots = new HCluster[mLeaves.size()];
+      for (int slotNdx = 0; slotNdx < slots.length; slotNdx++) {
+         slots[slotNdx] = mLeaves.get(slotNdx).shallowCopy();
+      }
+
+      for (int mergeNdx = 0; mergeNdx < mNumMerges; mergeNdx++) {
+         if (mMergeSim[mergeNdx] > threshold) {
+            slots[mMergeA[mergeNdx]].join(slots[mMergeB[mergeNdx]]);
+            slots[mMergeB[mergeNdx]] = null;
+         }
+      }
+
+      List<Cluster> clusters = new ArrayList<Cluster>();
+      for (HCluster clust : slots) {
+         if (clust != null) { clusters.add(clust); }
+      }
+
+      return clusters;
+   }
+
+   public Map<Float, List<Cluster>> cut(Collection<Float> thresholds) {
+      Map<Float, List<Cluster>> cuts = new HashMap<Float, List<Cluster>>(thresholds.size());
+
+      for (Float threshold : thresholds) {
+         cuts.put(threshold, cut(threshold.floatValue()));
+      }
+
+      return cuts;
+   }
+}
@@ -1,15 +1,16 @@
 package com.drin.java.clustering;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Callable;
+import com.drin.java.clustering.SimilarityMatrix;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.Map;
+import java.util.Iterator;
 
 public class FastCluster {
-   private static final ExecutorService mThreadPool = Executors.newFixedThreadPool(64);
-   public static int mNumIsolates = -1;
-   public static float[] mSimMatrix = null;
-   public static int[][] mSimMapping = null;
+   public static SimilarityMatrix mSimMatrix = null;
    public static boolean mTransform = false;
+   public static boolean mCacheLinkage = false;
 
    private static final float ALPHA_THRESH = 0.90f,
                               BETA_THRESH  = 0.85f;
@@ -19,12 +20,16 @@ public class FastCluster {
 
    private float mDiameter, mMean, mPerSim;
 
+   //untransformed average similarity to clusters this cluster was compared to
+   private volatile Map<FastCluster, Float> mLinkCache;
+
    public FastCluster(int isoID, int clustSize) {
       mElements = new int[clustSize];
       mElements[0] = isoID;
       mTail = 1;
 
       mDiameter = mMean = mPerSim = -1.0f;
+      mLinkCache = null;
    }
    
    public FastCluster(int isoID) {
@@ -39,6 +44,20 @@ public class FastCluster {
       }
    }
 
+   /**
+    * Sets the similarities used by every FastCluster comparison. Isolate IDs
+    * are indices into the matrix.
+    */
+   public static void setSimilarities(SimilarityMatrix simMatrix) { mSimMatrix = simMatrix; }
+
+   /**
+    * Sets the similarities from a packed triangular matrix, such as one built
+    * by CorrelationMatrixBuilder, laid out as SimilarityMatrix describes.
+    */
+   public static void setSimilarities(int numIsolates, float[] simMatrix) {
+      setSimilarities(new SimilarityMatrix(numIsolates, simMatrix));
+   }
+
    public int getID() { return mElements[0]; }
    public int size() { return mTail; }
    public int[] getElements() { return mElements; }
@@ -51,6 +70,8 @@ public class FastCluster {
       return false;
    }
 
+   public int hashCode() { return mElements[0]; }
+
    private void computeStatistics () {
       float total_sim = 0, diameter = Float.MAX_VALUE;
       short num_sim = 0, count = 0;
@@ -58,9 +79,7 @@ public class FastCluster {
 
       for (int ndxA = 0; ndxA < mTail; ndxA++) {
          for (int ndxB = ndxA + 1; ndxB < mTail; ndxB++) {
-            clustSim = mSimMatrix[mSimMapping[mElements[ndxA]][
-               mElements[ndxB] % (mNumIsolates - mElements[ndxA])]
-            ];
+            clustSim = mSimMatrix.get(mElements[ndxA], mElements[ndxB]);
 
             total_sim += clustSim;
             diameter = Math.min(diameter, clustSim);
@@ -96,116 +115,121 @@ public class FastCluster {
    }
 
    public float compareTo(FastCluster other) {
-      final int[] elemsA = mElements, elemsB = other.mElements;
-      final int lastA = mTail, lastB = other.mTail;
-      Float comparison = null;
-
-      try {
-         comparison = mThreadPool.submit(new Callable<Float>() {
-            public Float call() {
-               float clustSim = 0;
-               int simCount = 0;
-
-               for (int elemNdxA = 0; elemNdxA < lastA; elemNdxA++) {
-                  for (int elemNdxB = 0; elemNdxB < lastB; elemNdxB++) {
-                     if (elemsA[elemNdxA] > elemsB[elemNdxB]) {
-                        simCount++;
-                        clustSim += mSimMatrix[mSimMapping[elemsB[elemNdxB]][
-                           elemsA[elemNdxA] % (mNumIsolates - elemsB[elemNdxB])]
-                        ];
-                     }
-                     else if (elemsA[elemNdxA] < elemsB[elemNdxB]) {
-                        simCount++;
-                        clustSim += mSimMatrix[mSimMapping[elemsA[elemNdxA]][
-                           elemsB[elemNdxB] % (mNumIsolates - elemsA[elemNdxA])]
-                        ];
-                     }
-                     else if (elemsA[elemNdxA] == elemsB[elemNdxB]) {
-                        System.out.printf("comparison between the same isolate!\n" +
-                           "[ %s and %s ]\n", elemsA[elemNdxA], elemsB[elemNdxB]
-                        );
-                     }
-                  }
-               }
-
-
-               try {
-                  if (simCount > 0) { return new Float(clustSim/simCount); }
-               }
-               catch (Exception err) {
-                  System.out.println("Caught inside of the thread");
-                  err.printStackTrace();
-               }
-
-               return new Float(0.0f);
-            }
-         }).get();
-      }
-      catch (Exception err) {
-         System.out.println("Caught outside of the thread");
-         err.printStackTrace();
-         System.exit(0);
-      }
+      float clustSim = 0.0f;
+      Float cachedSim = mCacheLinkage ? getLinkCache().get(other) : null;
 
-      if (comparison != null) {
-         if (mTransform) {
-            if (comparison.floatValue() >= ALPHA_THRESH) {
-               return 1.0f;
-            }
-            else if (comparison.floatValue() < BETA_THRESH) {
-               return 0.0f;
-            }
+      if (cachedSim != null) { clustSim = cachedSim.floatValue(); }
+      else {
+         clustSim = averageSimilarity(other);
+
+         if (mCacheLinkage) {
+            cachedSim = new Float(clustSim);
+
+            getLinkCache().put(other, cachedSim);
+            other.getLinkCache().put(this, cachedSim);
          }
+      }
 
-         return comparison.floatValue();
+      if (mTransform) {
+         if (clustSim >= ALPHA_THRESH) { return 1.0f; }
+         else if (clustSim < BETA_THRESH) { return 0.0f; }
       }
 
-      return 0.0f;
+      return clustSim;
    }
 
    /*
-   public float compareTo(FastCluster other) {
+    * Untransformed average similarity between every element of this cluster
+    * and every element of the other cluster.
+    */
+   private float averageSimilarity(FastCluster other) {
+      final int[] elemsA = mElements, elemsB = other.mElements;
+      final int lastA = mTail, lastB = other.mTail;
+      final SimilarityMatrix simMatrix = mSimMatrix;
+
       float clustSim = 0.0f;
       int simCount = 0;
 
-      for (int elemNdxA = 0; elemNdxA < mTail; elemNdxA++) {
-         for (int elemNdxB = 0; elemNdxB < other.mTail; elemNdxB++) {
-            if (mElements[elemNdxA] > other.mElements[elemNdxB]) {
-               simCount++;
-               clustSim += mSimMatrix[mSimMapping[other.mElements[elemNdxB]][
-                  mElements[elemNdxA] % (mNumIsolates - other.mElements[elemNdxB])]
-               ];
-            }
-            else if (mElements[elemNdxA] < other.mElements[elemNdxB]) {
+      for (int elemNdxA = 0; elemNdxA < lastA; elemNdxA++) {
+         int elemA = elemsA[elemNdxA];
+
+         for (int elemNdxB = 0; elemNdxB < lastB; elemNdxB++) {
+            int elemB = elemsB[elemNdxB];
+
+            if (elemA != elemB) {
+               clustSim += simMatrix.get(elemA, elemB);
                simCount++;
-               clustSim += mSimMatrix[mSimMapping[mElements[elemNdxA]][
-                  other.mElements[elemNdxB] % (mNumIsolates - mElements[elemNdxA])]
-               ];
             }
-            else if (mElements[elemNdxA] == other.mElements[elemNdxB]) {
+            else {
                System.out.printf("comparison between the same isolate!\n" +
-                  "[ %s and %s ]\n", mElements[elemNdxA], other.mElements[elemNdxB]
+                  "[ %s and %s ]\n", elemA, elemB
                );
             }
          }
       }
 
-      if (simCount > 0) { clustSim /= simCount; }
+      if (simCount > 0) { return clustSim / simCount; }
+      return 0.0f;
+   }
 
-      if (mTransform) {
-         if (clustSim >= ALPHA_THRESH) { return 1.0f; }
-         else if (clustSim < BETA_THRESH) { return 0.0f; }
+   //clusters may be compared from several threads during a best pair search
+   private Map<FastCluster, Float> getLinkCache() {
+      Map<FastCluster, Float> linkCache = mLinkCache;
+
+      if (linkCache == null) {
+         synchronized (this) {
+            if (mLinkCache == null) {
+               mLinkCache = new ConcurrentHashMap<FastCluster, Float>();
+            }
+
+            linkCache = mLinkCache;
+         }
       }
 
-      return clustSim;
+      return linkCache;
    }
-   */
 
-   public static void shutdownThreadPool() {
-      mThreadPool.shutdown();
+   /*
+    * Lance-Williams update of the cached linkage row for average linkage.
+    * Must be called before other's elements are incorporated.
+    */
+   private void updateLinkage(FastCluster other) {
+      Map<FastCluster, Float> linkCache = getLinkCache(),
+                              otherCache = other.getLinkCache();
+      float sizeA = mTail, sizeB = other.mTail;
+
+      Iterator<Map.Entry<FastCluster, Float>> linkItr = linkCache.entrySet().iterator();
+      while (linkItr.hasNext()) {
+         Map.Entry<FastCluster, Float> link = linkItr.next();
+         FastCluster neighbor = link.getKey();
+         Float otherSim = otherCache.get(neighbor);
+
+         if (neighbor == other) { linkItr.remove(); }
+         else if (otherSim == null) {
+            linkItr.remove();
+            neighbor.getLinkCache().remove(this);
+         }
+         else {
+            Float clustSim = new Float(
+               ((sizeA * link.getValue().floatValue()) +
+                (sizeB * otherSim.floatValue())) / (sizeA + sizeB)
+            );
+
+            link.setValue(clustSim);
+            neighbor.getLinkCache().put(this, clustSim);
+         }
+      }
+
+      for (FastCluster neighbor : otherCache.keySet()) {
+         neighbor.getLinkCache().remove(other);
+      }
+
+      otherCache.clear();
    }
 
    public void incorporate(FastCluster other) {
+      if (mCacheLinkage) { updateLinkage(other); }
+
       if (mElements.length < mTail + other.mTail) {
          int[] newArr = new int[(mElements.length * 2) + other.mTail];
 
@@ -0,0 +1,91 @@
+package com.drin.java.clustering;
+
+import com.drin.java.clustering.FastCluster;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Compares one FastCluster against many FastClusters in parallel. The
+ * clusters being compared against are split into one contiguous chunk per
+ * thread, so each task runs the scalar FastCluster.compareTo kernel over many
+ * clusters instead of handing off a single comparison.
+ *
+ * The comparator owns its thread pool, which should be released with
+ * shutdown() once the comparator is no longer needed.
+ */
+public class FastClusterComparator {
+   private final ExecutorService mThreadPool;
+   private final int mNumThreads;
+
+   public FastClusterComparator(int numThreads) {
+      mNumThreads = numThreads;
+      mThreadPool = Executors.newFixedThreadPool(numThreads);
+   }
+
+   public int getNumThreads() { return mNumThreads; }
+
+   /**
+    * Compares a cluster against every cluster in others, starting at index
+    * fromNdx.
+    *
+    * @return float[] Similarities such that result[ndx - fromNdx] is the
+    * similarity between clust and others.get(ndx).
+    */
+   public float[] compareAll(final FastCluster clust, final List<FastCluster> others,
+                             final int fromNdx) {
+      final float[] similarities = new float[Math.max(0, others.size() - fromNdx)];
+      int chunkSize = (similarities.length + mNumThreads - 1) / mNumThreads;
+
+      if (similarities.length == 0) { return similarities; }
+
+      List<Future<Void>> chunks = new ArrayList<Future<Void>>(mNumThreads);
+
+      for (int chunkStart = 0; chunkStart < similarities.length; chunkStart += chunkSize) {
+         final int startNdx = chunkStart,
+                   endNdx = Math.min(chunkStart + chunkSize, similarities.length);
+
+         chunks.add(mThreadPool.submit(new Callable<Void>() {
+            public Void call() {
+               for (int ndx = startNdx; ndx < endNdx; ndx++) {
+                  similarities[ndx] = clust.compareTo(others.get(fromNdx + ndx));
+               }
+
+               return null;
+            }
+         }));
+      }
+
+      try {
+         for (Future<Void> chunk : chunks) { chunk.get(); }
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while comparing clusters", interruptErr);
+      }
+      catch (java.util.concurrent.ExecutionException execErr) {
+         throw new IllegalStateException("Error while comparing clusters", execErr.getCause());
+      }
+
+      return similarities;
+   }
+
+   /**
+    * Stops accepting comparisons and waits for running comparisons to
+    * finish.
+    */
+   public void shutdown() {
+      mThreadPool.shutdown();
+
+      try { mThreadPool.awaitTermination(1, TimeUnit.MINUTES); }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
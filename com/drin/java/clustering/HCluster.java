@@ -18,9 +18,27 @@ public class HCluster extends Cluster {
 
    public HCluster(HCluster oldCluster) { super(oldCluster); }
 
+   private HCluster(int clustId, int clustSize) { super(clustId, clustSize); }
+
+   /*
+    * Copies this cluster, keeping its id and sharing its elements.
+    */
+   public HCluster shallowCopy() {
+      HCluster clustCopy = new HCluster(mId, mSize);
+
+      clustCopy.mElements.addAll(mElements);
+      clustCopy.mSize = mSize;
+      clustCopy.mMetaLabels = mMetaLabels;
+      clustCopy.mCacheSimilarities = mCacheSimilarities;
+
+      return clustCopy;
+   }
+
    @Override
    public void join(Cluster otherClust) {
       if (otherClust instanceof HCluster) {
+         if (mCacheSimilarities) { updateSimilarities(otherClust); }
+
          mElements.addAll(otherClust.mElements);
          mSize = mElements.size();
       }
@@ -0,0 +1,234 @@
+package com.drin.java.clustering;
+
+import com.drin.java.clustering.SimilarityMatrix;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * SimilarityMatrix kept in a file and read through memory maps, so that it
+ * can be reused by later runs and is never loaded onto the heap.
+ *
+ * The file starts with a header holding the names of the data points, in
+ * matrix order, a list of properties describing how the similarities were
+ * computed and a checksum of the data they were computed from; the caller
+ * decides what these are and compares them with matches() before reusing a
+ * file. The packed triangular body follows at the next page boundary.
+ *
+ * A new file is only marked complete by commit(), after its body has been
+ * written, so a file left behind by an interrupted run is never reused.
+ * Entries may be set from several threads at once as long as each entry is
+ * only set by one of them.
+ */
+public class MappedSimilarityMatrix extends SimilarityMatrix {
+   private static final int MAGIC = 0x53504d58, VERSION = 1;
+   private static final int MAP_SEGMENT_BITS = 28;
+   private static final int BODY_OFFSET_POS = 16;
+   private static final long PAGE_SIZE = 4096;
+
+   private final String mFileName;
+   private final FileChannel mChannel;
+   private final MappedByteBuffer[] mMaps;
+   private final FloatBuffer[] mSegments;
+
+   private final List<String> mNames, mProperties;
+   private final long mChecksum;
+
+   private MappedSimilarityMatrix(File matrixFile, FileChannel channel, long bodyOffset,
+                                  boolean writable, List<String> names,
+                                  List<String> properties, long checksum) throws IOException {
+      super(names.size(), null, MAP_SEGMENT_BITS);
+
+      mFileName = matrixFile.getPath();
+      mChannel = channel;
+      mNames = names;
+      mProperties = properties;
+      mChecksum = checksum;
+
+      long segmentSize = 1L << MAP_SEGMENT_BITS;
+      int numSegments = (int) ((getNumEntries() + segmentSize - 1) >>> MAP_SEGMENT_BITS);
+
+      mMaps = new MappedByteBuffer[numSegments];
+      mSegments = new FloatBuffer[numSegments];
+
+      for (int segNdx = 0; segNdx < numSegments; segNdx++) {
+         long segStart = ((long) segNdx) << MAP_SEGMENT_BITS;
+         long segEntries = Math.min(segmentSize, getNumEntries() - segStart);
+
+         mMaps[segNdx] = channel.map(writable ? FileChannel.MapMode.READ_WRITE :
+                                                FileChannel.MapMode.READ_ONLY,
+                                     bodyOffset + segStart * 4, segEntries * 4);
+         mMaps[segNdx].order(ByteOrder.nativeOrder());
+         mSegments[segNdx] = mMaps[segNdx].asFloatBuffer();
+      }
+   }
+
+   /**
+    * Creates, or overwrites, a matrix file for the given data points with
+    * every similarity set to 0. The file is not reusable until commit() is
+    * called.
+    */
+   public static MappedSimilarityMatrix create(File matrixFile, List<String> names,
+                                               List<String> properties,
+                                               long checksum) throws IOException {
+      ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(headerBytes);
+
+      //the magic number is written by commit()
+      header.writeInt(0);
+      header.writeInt(VERSION);
+      header.writeLong(checksum);
+      header.writeLong(0);
+      writeStrings(header, properties);
+      writeStrings(header, names);
+      header.close();
+
+      byte[] headerArr = headerBytes.toByteArray();
+      long bodyOffset = ((headerArr.length + PAGE_SIZE - 1) / PAGE_SIZE) * PAGE_SIZE;
+      ByteBuffer.wrap(headerArr).putLong(BODY_OFFSET_POS, bodyOffset);
+
+      RandomAccessFile matrixRAF = new RandomAccessFile(matrixFile, "rw");
+
+      try {
+         matrixRAF.setLength(0);
+         matrixRAF.setLength(bodyOffset + SimilarityMatrix.numEntries(names.size()) * 4);
+         matrixRAF.write(headerArr);
+
+         return new MappedSimilarityMatrix(matrixFile, matrixRAF.getChannel(), bodyOffset, true,
+                                           new ArrayList<String>(names),
+                                           new ArrayList<String>(properties), checksum);
+      }
+      catch (IOException ioErr) {
+         matrixRAF.close();
+         throw ioErr;
+      }
+   }
+
+   /**
+    * Opens an existing matrix file read-only.
+    *
+    * @return MappedSimilarityMatrix The matrix, or null if the file does not
+    * exist or does not hold a complete matrix.
+    */
+   public static MappedSimilarityMatrix open(File matrixFile) throws IOException {
+      if (!matrixFile.isFile()) { return null; }
+
+      RandomAccessFile matrixRAF = new RandomAccessFile(matrixFile, "r");
+      FileChannel channel = matrixRAF.getChannel();
+
+      try {
+         DataInputStream header = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel))
+         );
+
+         if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+            matrixRAF.close();
+            return null;
+         }
+
+         long checksum = header.readLong(), bodyOffset = header.readLong();
+         List<String> properties = readStrings(header), names = readStrings(header);
+
+         if (bodyOffset + SimilarityMatrix.numEntries(names.size()) * 4 != channel.size()) {
+            matrixRAF.close();
+            return null;
+         }
+
+         return new MappedSimilarityMatrix(matrixFile, channel, bodyOffset, false,
+                                           names, properties, checksum);
+      }
+      catch (EOFException headerErr) {
+         matrixRAF.close();
+         return null;
+      }
+      catch (IOException ioErr) {
+         matrixRAF.close();
+         throw ioErr;
+      }
+   }
+
+   public String getFileName() { return mFileName; }
+   public List<String> getNames() { return mNames; }
+   public List<String> getProperties() { return mProperties; }
+   public long getChecksum() { return mChecksum; }
+
+   /**
+    * @return boolean Whether this matrix was computed for the given data
+    * points, in the same order, with the same properties and checksum.
+    */
+   public boolean matches(List<String> names, List<String> properties, long checksum) {
+      return mChecksum == checksum && mNames.equals(names) && mProperties.equals(properties);
+   }
+
+   @Override
+   public float get(int ndxA, int ndxB) {
+      long offset = checkedOffset(ndxA, ndxB);
+
+      return mSegments[(int) (offset >>> MAP_SEGMENT_BITS)].get(
+         (int) (offset & ((1L << MAP_SEGMENT_BITS) - 1))
+      );
+   }
+
+   @Override
+   public void set(int ndxA, int ndxB, float similarity) {
+      long offset = checkedOffset(ndxA, ndxB);
+
+      mSegments[(int) (offset >>> MAP_SEGMENT_BITS)].put(
+         (int) (offset & ((1L << MAP_SEGMENT_BITS) - 1)), similarity
+      );
+   }
+
+   /**
+    * Writes the body out and marks the file complete, so that open() will
+    * accept it.
+    */
+   public void commit() throws IOException {
+      for (MappedByteBuffer map : mMaps) { map.force(); }
+
+      ByteBuffer magic = ByteBuffer.allocate(4);
+      magic.putInt(MAGIC).flip();
+
+      mChannel.write(magic, 0);
+      mChannel.force(false);
+   }
+
+   /**
+    * Closes the file. The matrix can still be read afterwards; the mapping
+    * stays valid until the matrix is garbage collected.
+    */
+   public void close() throws IOException { mChannel.close(); }
+
+   private static void writeStrings(DataOutputStream out, List<String> strs) throws IOException {
+      out.writeInt(strs.size());
+
+      for (String str : strs) { out.writeUTF(str); }
+   }
+
+   private static List<String> readStrings(DataInputStream in) throws IOException {
+      int numStrs = in.readInt();
+
+      if (numStrs < 0) { throw new EOFException("Negative string count"); }
+
+      List<String> strs = new ArrayList<String>(Math.min(numStrs, 1 << 16));
+
+      for (int strNdx = 0; strNdx < numStrs; strNdx++) { strs.add(in.readUTF()); }
+
+      return strs;
+   }
+}
@@ -0,0 +1,242 @@
+package com.drin.java.clustering;
+
+import com.drin.java.clustering.SimilarityMatrix;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import java.util.List;
+import java.util.Arrays;
+
+/**
+ * Similarities between data points, shared by every data point in the
+ * process. Each data point name is given a dense integer ID the first time it
+ * is seen, and similarities are kept in a packed triangular matrix laid out
+ * like SimilarityMatrix, by ID. Rows are appended as IDs
+ * are handed out, so the matrix grows without moving entries that are
+ * already stored.
+ *
+ * The matrix is split into fixed-size segments that are allocated the first
+ * time a similarity is stored in them. Each entry holds the bits of a float,
+ * with NaN meaning the similarity has not been computed, and is filled with
+ * a compare-and-set so concurrent writers agree on one value.
+ *
+ * Entries are only valid while the data and the ITSRegion transform setting
+ * behind them are unchanged; clear() drops them all. Since data points are
+ * known by name, each top-level load or clustering run clears the cache
+ * first. A precomputed matrix can be attached to answer lookups that miss.
+ */
+public class SimilarityCache {
+   private static final int SEGMENT_BITS = 20,
+                            SEGMENT_SIZE = 1 << SEGMENT_BITS,
+                            SEGMENT_MASK = SEGMENT_SIZE - 1;
+   private static final int NOT_COMPUTED = Float.floatToRawIntBits(Float.NaN);
+
+   private static final SimilarityCache sCache = new SimilarityCache();
+
+   private final ConcurrentHashMap<String, Integer> mIds;
+
+   //replaced, never modified, while holding this cache's lock
+   private volatile AtomicReferenceArray<AtomicIntegerArray> mSegments;
+   private volatile MatrixRows mMatrixRows;
+
+   public SimilarityCache() {
+      mIds = new ConcurrentHashMap<String, Integer>();
+      mSegments = new AtomicReferenceArray<AtomicIntegerArray>(0);
+      mMatrixRows = null;
+   }
+
+   public static SimilarityCache getCache() { return sCache; }
+
+   /**
+    * @return int The dense ID of the data point with the given name, which is
+    * assigned if the name has not been seen before.
+    */
+   public int getId(String name) {
+      Integer id = mIds.get(name);
+
+      if (id == null) { id = assignId(name); }
+      return id.intValue();
+   }
+
+   public int getNumIds() { return mIds.size(); }
+
+   private synchronized Integer assignId(String name) {
+      Integer id = mIds.get(name);
+
+      if (id == null) {
+         id = new Integer(mIds.size());
+         mIds.put(name, id);
+      }
+
+      return id;
+   }
+
+   /**
+    * @return float The cached similarity of the two data points, or NaN if it
+    * has not been computed.
+    */
+   public float get(int idA, int idB) {
+      long offset = offset(idA, idB);
+      AtomicReferenceArray<AtomicIntegerArray> segments = mSegments;
+      int segNdx = (int) (offset >>> SEGMENT_BITS);
+
+      if (segNdx < segments.length()) {
+         AtomicIntegerArray segment = segments.get(segNdx);
+
+         if (segment != null) {
+            float similarity = Float.intBitsToFloat(segment.get((int) (offset & SEGMENT_MASK)));
+            if (!Float.isNaN(similarity)) { return similarity; }
+         }
+      }
+
+      MatrixRows matrixRows = mMatrixRows;
+      if (matrixRows == null) { return Float.NaN; }
+
+      return matrixRows.get(idA, idB);
+   }
+
+   /**
+    * Falls back to a precomputed matrix, such as a MappedSimilarityMatrix
+    * from an earlier run, for similarities that are not cached. The matrix
+    * is read in place; nothing is copied into the cache.
+    *
+    * @param names The names of the matrix's data points, in matrix order.
+    */
+   public void attachMatrix(SimilarityMatrix simMatrix, List<String> names) {
+      if (names.size() != simMatrix.size()) {
+         throw new IllegalArgumentException(String.format(
+            "%d names given for a matrix of %d data points", names.size(), simMatrix.size()
+         ));
+      }
+
+      int[] rowNdxs = new int[names.size()];
+      int maxId = -1;
+
+      for (int rowNdx = 0; rowNdx < names.size(); rowNdx++) {
+         rowNdxs[rowNdx] = getId(names.get(rowNdx));
+         maxId = Math.max(maxId, rowNdxs[rowNdx]);
+      }
+
+      int[] idRows = new int[maxId + 1];
+      Arrays.fill(idRows, -1);
+
+      for (int rowNdx = 0; rowNdx < rowNdxs.length; rowNdx++) {
+         idRows[rowNdxs[rowNdx]] = rowNdx;
+      }
+
+      synchronized (this) { mMatrixRows = new MatrixRows(simMatrix, idRows); }
+   }
+
+   /**
+    * Stores the similarity of two data points unless another thread already
+    * stored one.
+    *
+    * @return float The similarity that is cached for the pair afterwards.
+    */
+   public float putIfAbsent(int idA, int idB, float similarity) {
+      long offset = offset(idA, idB);
+      AtomicIntegerArray segment = segment((int) (offset >>> SEGMENT_BITS));
+      int entryNdx = (int) (offset & SEGMENT_MASK);
+
+      if (segment.compareAndSet(entryNdx, NOT_COMPUTED, Float.floatToRawIntBits(similarity))) {
+         return similarity;
+      }
+
+      return Float.intBitsToFloat(segment.get(entryNdx));
+   }
+
+   /**
+    * Stores the similarity of two data points, replacing any cached value.
+    */
+   public void put(int idA, int idB, float similarity) {
+      long offset = offset(idA, idB);
+
+      segment((int) (offset >>> SEGMENT_BITS)).set((int) (offset & SEGMENT_MASK),
+                                                   Float.floatToRawIntBits(similarity));
+   }
+
+   /**
+    * Drops every cached similarity, and any attached matrix. IDs are kept.
+    */
+   public synchronized void clear() {
+      mSegments = new AtomicReferenceArray<AtomicIntegerArray>(0);
+      mMatrixRows = null;
+   }
+
+   /*
+    * Returns the segment with the given index, allocating it, and growing
+    * the list of segments, if needed.
+    */
+   private AtomicIntegerArray segment(int segNdx) {
+      AtomicReferenceArray<AtomicIntegerArray> segments = mSegments;
+
+      if (segNdx < segments.length()) {
+         AtomicIntegerArray segment = segments.get(segNdx);
+         if (segment != null) { return segment; }
+      }
+
+      return allocateSegment(segNdx);
+   }
+
+   private synchronized AtomicIntegerArray allocateSegment(int segNdx) {
+      AtomicReferenceArray<AtomicIntegerArray> segments = mSegments;
+
+      if (segNdx >= segments.length()) {
+         AtomicReferenceArray<AtomicIntegerArray> newSegments =
+            new AtomicReferenceArray<AtomicIntegerArray>(Math.max(segNdx + 1,
+                                                                  segments.length() * 2));
+
+         for (int ndx = 0; ndx < segments.length(); ndx++) {
+            newSegments.set(ndx, segments.get(ndx));
+         }
+
+         mSegments = segments = newSegments;
+      }
+
+      AtomicIntegerArray segment = segments.get(segNdx);
+
+      if (segment == null) {
+         int[] entries = new int[SEGMENT_SIZE];
+         Arrays.fill(entries, NOT_COMPUTED);
+
+         segment = new AtomicIntegerArray(entries);
+         segments.set(segNdx, segment);
+      }
+
+      return segment;
+   }
+
+   private static long offset(int idA, int idB) {
+      if (idA < 0 || idB < 0) {
+         throw new IllegalArgumentException(String.format(
+            "No similarity entry for IDs %d and %d", idA, idB
+         ));
+      }
+
+      return SimilarityMatrix.offset(idA, idB);
+   }
+
+   /*
+    * An attached matrix and the row of each cache ID in it, or -1.
+    */
+   private static class MatrixRows {
+      private final SimilarityMatrix mMatrix;
+      private final int[] mIdRows;
+
+      private MatrixRows(SimilarityMatrix simMatrix, int[] idRows) {
+         mMatrix = simMatrix;
+         mIdRows = idRows;
+      }
+
+      private float get(int idA, int idB) {
+         if (idA >= mIdRows.length || idB >= mIdRows.length ||
+             mIdRows[idA] < 0 || mIdRows[idB] < 0) {
+            return Float.NaN;
+         }
+
+         return mMatrix.get(mIdRows[idA], mIdRows[idB]);
+      }
+   }
+}
@@ -0,0 +1,110 @@
+package com.drin.java.clustering;
+
+/**
+ * Symmetric similarity matrix over n data points, numbered 0 to n - 1,
+ * without its diagonal. The similarity of the pair (a, b), a < b, is kept at
+ * offset b * (b - 1) / 2 + a of a packed triangular matrix, computed
+ * directly from the pair. Offsets are longs and the entries are split over
+ * several arrays, so a matrix can have more than 2^31 entries (more than
+ * about 65k data points).
+ */
+public class SimilarityMatrix {
+   private static final int SEGMENT_BITS = 24;
+
+   private final int mSize, mSegmentBits;
+   private final long mSegmentMask, mNumEntries;
+   private final float[][] mSegments;
+
+   /**
+    * Creates a matrix of n data points with every similarity set to 0.
+    */
+   public SimilarityMatrix(int size) {
+      this(size, allocateSegments(numEntries(size)), SEGMENT_BITS);
+   }
+
+   /**
+    * Wraps an existing packed matrix, such as one built by
+    * CorrelationMatrixBuilder, without copying it.
+    */
+   public SimilarityMatrix(int size, float[] packedMatrix) {
+      this(size, new float[][] {packedMatrix}, 31);
+
+      if (packedMatrix.length != mNumEntries) {
+         throw new IllegalArgumentException(String.format(
+            "Similarity matrix of size %d does not match %d data points",
+            packedMatrix.length, size
+         ));
+      }
+   }
+
+   /*
+    * For subclasses that keep their entries elsewhere; they override get and
+    * set and pass no segments.
+    */
+   protected SimilarityMatrix(int size, float[][] segments, int segmentBits) {
+      if (size < 0) {
+         throw new IllegalArgumentException("Negative matrix size " + size);
+      }
+
+      mSize = size;
+      mNumEntries = numEntries(size);
+      mSegmentBits = segmentBits;
+      mSegmentMask = (1L << segmentBits) - 1;
+      mSegments = segments;
+   }
+
+   private static float[][] allocateSegments(long numEntries) {
+      long segmentSize = 1L << SEGMENT_BITS;
+      float[][] segments = new float[(int) ((numEntries + segmentSize - 1) >>> SEGMENT_BITS)][];
+
+      for (int segNdx = 0; segNdx < segments.length; segNdx++) {
+         long segStart = ((long) segNdx) << SEGMENT_BITS;
+         segments[segNdx] = new float[(int) Math.min(segmentSize, numEntries - segStart)];
+      }
+
+      return segments;
+   }
+
+   public int size() { return mSize; }
+   public long getNumEntries() { return mNumEntries; }
+
+   public float get(int ndxA, int ndxB) {
+      long offset = checkedOffset(ndxA, ndxB);
+
+      return mSegments[(int) (offset >>> mSegmentBits)][(int) (offset & mSegmentMask)];
+   }
+
+   public void set(int ndxA, int ndxB, float similarity) {
+      long offset = checkedOffset(ndxA, ndxB);
+
+      mSegments[(int) (offset >>> mSegmentBits)][(int) (offset & mSegmentMask)] = similarity;
+   }
+
+   protected long checkedOffset(int ndxA, int ndxB) {
+      if (ndxA < 0 || ndxB < 0 || ndxA >= mSize || ndxB >= mSize) {
+         throw new IndexOutOfBoundsException(String.format(
+            "Pair (%d, %d) is outside a matrix of %d data points", ndxA, ndxB, mSize
+         ));
+      }
+
+      return offset(ndxA, ndxB);
+   }
+
+   /**
+    * Offset of the pair (ndxA, ndxB) in a packed triangular matrix without
+    * its diagonal.
+    */
+   public static long offset(int ndxA, int ndxB) {
+      if (ndxA == ndxB) {
+         throw new IllegalArgumentException("No similarity entry for the pair (" +
+                                            ndxA + ", " + ndxB + ")");
+      }
+
+      long lowNdx = Math.min(ndxA, ndxB), highNdx = Math.max(ndxA, ndxB);
+      return ((highNdx * (highNdx - 1)) >>> 1) + lowNdx;
+   }
+
+   public static long numEntries(int size) {
+      return ((long) size * (size - 1)) / 2;
+   }
+}
@@ -0,0 +1,213 @@
+package com.drin.java.clustering;
+
+import com.drin.java.biology.Isolate;
+import com.drin.java.clustering.Clusterable;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+
+/**
+ * Similarity graph that only keeps the pairs of data points whose similarity
+ * is at or above a minimum weight. Edges are stored in compressed sparse row
+ * form: the neighbors of node n are mNeighbors[mRowStart[n]] up to, but not
+ * including, mNeighbors[mRowStart[n + 1]], with their similarities in the same
+ * positions of mWeights. Every edge is stored once for each of its endpoints.
+ *
+ * Memory grows with the number of edges rather than the square of the number
+ * of data points. Isolates are compared without going through the
+ * SimilarityCache, so building the graph does not leave every pair cached.
+ *
+ * Clustering over the graph counts every dropped pair as 0. Dropped pairs are
+ * only known to be below the minimum weight, so linkages built from the graph
+ * are an approximation of dense average linkage, not the same thing: they
+ * come out low for clusters with pairs that were dropped but were not 0.
+ */
+public class SparseSimilarityGraph {
+   private static final int INITIAL_EDGES = 1024, TILE_ROWS = 64;
+
+   private Map<String, Integer> mNodeIds;
+   private float mMinWeight;
+
+   private int[] mRowStart, mNeighbors;
+   private float[] mWeights;
+
+   /**
+    * Compares every pair of data points and keeps the pairs that are at
+    * least minWeight similar.
+    */
+   public SparseSimilarityGraph(List<? extends Clusterable<?>> nodes, float minWeight) {
+      this(nodes, minWeight, 1);
+   }
+
+   /**
+    * Compares every pair of data points on numThreads threads, in tiles of
+    * rows, and keeps the pairs that are at least minWeight similar. The graph
+    * is the same whatever the number of threads.
+    */
+   public SparseSimilarityGraph(final List<? extends Clusterable<?>> nodes,
+                                final float minWeight, int numThreads) {
+      int numNodes = nodes.size();
+      List<EdgeList> tiles = new ArrayList<EdgeList>();
+
+      mMinWeight = minWeight;
+      mNodeIds = new HashMap<String, Integer>(numNodes);
+
+      for (int nodeNdx = 0; nodeNdx < numNodes; nodeNdx++) {
+         mNodeIds.put(nodes.get(nodeNdx).getName(), new Integer(nodeNdx));
+      }
+
+      if (numThreads <= 1) {
+         for (int rowStart = 0; rowStart < numNodes; rowStart += TILE_ROWS) {
+            tiles.add(compareRows(nodes, minWeight, rowStart,
+                                  Math.min(rowStart + TILE_ROWS, numNodes)));
+         }
+      }
+      else {
+         ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+         List<Future<EdgeList>> tileTasks = new ArrayList<Future<EdgeList>>();
+
+         try {
+            for (int rowStart = 0; rowStart < numNodes; rowStart += TILE_ROWS) {
+               final int startA = rowStart, endA = Math.min(rowStart + TILE_ROWS, numNodes);
+
+               tileTasks.add(threadPool.submit(new Callable<EdgeList>() {
+                  public EdgeList call() {
+                     return compareRows(nodes, minWeight, startA, endA);
+                  }
+               }));
+            }
+
+            for (Future<EdgeList> tileTask : tileTasks) { tiles.add(tileTask.get()); }
+         }
+         catch (InterruptedException interruptErr) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building similarity graph",
+                                            interruptErr);
+         }
+         catch (ExecutionException execErr) {
+            throw new IllegalStateException("Error while building similarity graph",
+                                            execErr.getCause());
+         }
+         finally { threadPool.shutdownNow(); }
+      }
+
+      buildRows(numNodes, tiles);
+   }
+
+   /*
+    * Edges from the nodes in [startA, endA) to every later node.
+    */
+   private static EdgeList compareRows(List<? extends Clusterable<?>> nodes, float minWeight,
+                                       int startA, int endA) {
+      EdgeList edges = new EdgeList();
+
+      for (int ndxA = startA; ndxA < endA; ndxA++) {
+         Clusterable<?> nodeA = nodes.get(ndxA);
+
+         for (int ndxB = ndxA + 1; ndxB < nodes.size(); ndxB++) {
+            float weight = similarity(nodeA, nodes.get(ndxB));
+            if (weight >= minWeight) { edges.add(ndxA, ndxB, weight); }
+         }
+      }
+
+      return edges;
+   }
+
+   private static float similarity(Clusterable<?> nodeA, Clusterable<?> nodeB) {
+      if (nodeA instanceof Isolate && nodeB instanceof Isolate) {
+         return ((Isolate) nodeA).computeSimilarity((Isolate) nodeB);
+      }
+
+      return nodeA.compareTo(nodeB);
+   }
+
+   private void buildRows(int numNodes, List<EdgeList> tiles) {
+      int numEdges = 0;
+
+      for (EdgeList tile : tiles) { numEdges += tile.mSize; }
+
+      mRowStart = new int[numNodes + 1];
+      mNeighbors = new int[numEdges * 2];
+      mWeights = new float[numEdges * 2];
+
+      for (EdgeList tile : tiles) {
+         for (int edgeNdx = 0; edgeNdx < tile.mSize; edgeNdx++) {
+            mRowStart[tile.mEdgeA[edgeNdx] + 1]++;
+            mRowStart[tile.mEdgeB[edgeNdx] + 1]++;
+         }
+      }
+
+      for (int nodeNdx = 0; nodeNdx < numNodes; nodeNdx++) {
+         mRowStart[nodeNdx + 1] += mRowStart[nodeNdx];
+      }
+
+      int[] rowFill = Arrays.copyOf(mRowStart, numNodes);
+
+      for (EdgeList tile : tiles) {
+         for (int edgeNdx = 0; edgeNdx < tile.mSize; edgeNdx++) {
+            int nodeA = tile.mEdgeA[edgeNdx], nodeB = tile.mEdgeB[edgeNdx];
+            int posA = rowFill[nodeA]++, posB = rowFill[nodeB]++;
+
+            mNeighbors[posA] = nodeB;
+            mWeights[posA] = tile.mWeights[edgeNdx];
+
+            mNeighbors[posB] = nodeA;
+            mWeights[posB] = tile.mWeights[edgeNdx];
+         }
+      }
+   }
+
+   public float getMinWeight() { return mMinWeight; }
+   public int getNumNodes() { return mRowStart.length - 1; }
+   public int getNumEdges() { return mNeighbors.length / 2; }
+
+   /**
+    * @return int The node for the data point with the given name, or -1 if
+    * the data point is not in this graph.
+    */
+   public int getNodeId(String name) {
+      Integer nodeId = mNodeIds.get(name);
+
+      if (nodeId == null) { return -1; }
+      return nodeId.intValue();
+   }
+
+   public int getRowStart(int nodeId) { return mRowStart[nodeId]; }
+   public int getRowEnd(int nodeId) { return mRowStart[nodeId + 1]; }
+   public int getNeighbor(int edgeNdx) { return mNeighbors[edgeNdx]; }
+   public float getWeight(int edgeNdx) { return mWeights[edgeNdx]; }
+
+   private static class EdgeList {
+      private int mSize;
+      private int[] mEdgeA, mEdgeB;
+      private float[] mWeights;
+
+      private EdgeList() {
+         mSize = 0;
+         mEdgeA = new int[INITIAL_EDGES];
+         mEdgeB = new int[INITIAL_EDGES];
+         mWeights = new float[INITIAL_EDGES];
+      }
+
+      private void add(int nodeA, int nodeB, float weight) {
+         if (mSize == mEdgeA.length) {
+            mEdgeA = Arrays.copyOf(mEdgeA, mSize * 2);
+            mEdgeB = Arrays.copyOf(mEdgeB, mSize * 2);
+            mWeights = Arrays.copyOf(mWeights, mSize * 2);
+         }
+
+         mEdgeA[mSize] = nodeA;
+         mEdgeB[mSize] = nodeB;
+         mWeights[mSize++] = weight;
+      }
+   }
+}
@@ -6,8 +6,15 @@ import com.drin.java.biology.Pyroprint;
 import com.drin.java.biology.ITSRegion;
 import com.drin.java.biology.Isolate;
 
+import com.drin.java.database.ConnectionPool.PooledConnection;
+
 import com.drin.java.util.Configuration;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -18,10 +25,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 import java.sql.Timestamp;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
-import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
@@ -37,11 +41,24 @@ public class CPLOPConnection {
    private static final String DB_PASS = "ILoveData#";
    */
    private static final int DEFAULT_PAGE_SIZE = 50000;
+   private static final int BATCH_SIZE = 1000;
+   private static final int DEFAULT_POOL_SIZE = 4;
+   private static final String PARAM_SECTION = "parameters",
+                               LOADER_CONNS_KEY = "loader connections",
+                               POOL_SIZE_KEY = "connection pool size",
+                               SELECTION_TABLE = "selected_isolates";
    private static final String REGION_16_23 = "16-23",
                                REGION_23_5  = "23-5",
                                PYRO_LEN     = "pyroprint length";
 
-   private Connection mConn;
+   private static ConnectionPool sPool = null;
+   private static CPLOPConnection sShared = null;
+
+   //last_insert_id() of each thread's last insert, which is only known on
+   //the pooled connection the insert ran on
+   private static final ThreadLocal<Integer> sLastInsertId = new ThreadLocal<Integer>();
+
+   private ConnectionPool mPool;
 
    private static final int m16sDispLen = Configuration.getInt(REGION_16_23, PYRO_LEN),
                             m23sDispLen = Configuration.getInt(REGION_23_5, PYRO_LEN);
@@ -91,11 +108,15 @@ public class CPLOPConnection {
                    "ORDER BY i.test_isolate_id, p1.pyroID, position " +
                    "LIMIT %d OFFSET %d",
 
+      //Selected isoIDs are joined from SELECTION_TABLE; see selectIsolates
       DIRECTED_DATA_QUERY = 
                    "SELECT i.isoID, p1.pyroID, p1.appliedRegion, p1.dsName, " +
                           "h1.pHeight, h1.position, i.hostID, i.userName, " +
                           "s.location, s.dateCollected " +
                    "FROM Isolates i " +
+                        "JOIN " + SELECTION_TABLE + " sel ON ( " +
+                           "sel.isoID = i.isoID" +
+                        ") " +
                         "JOIN Pyroprints p1 ON ( " +
                            "i.isoID = p1.isoID " +
                            //"p1.appliedRegion = '23-5'" +
@@ -113,7 +134,7 @@ public class CPLOPConnection {
                         */
                         "JOIN Histograms h1 ON ( " +
                            "p1.pyroID = h1.pyroID AND " +
-                           "h1.position < %d" +
+                           "h1.position < ?" +
                         ") " +
                         /*
                         "JOIN Histograms h2 ON ( " +
@@ -123,9 +144,8 @@ public class CPLOPConnection {
                         ") " +
                         */
                    //"ORDER BY i.isoID, p1.pyroID, p2.pyroID, position " +
-                   "WHERE i.isoID in (%s) " +
-                   "ORDER BY i.isoID, p1.pyroID, position " +
-                   "LIMIT %d OFFSET %d",
+                   "WHERE TRUE %s" +
+                   "ORDER BY i.isoID, p1.pyroID, h1.position ",
 
       //The join with samples is necessary because there are some isolates that
       //don't have an entry in the samples table
@@ -151,7 +171,7 @@ public class CPLOPConnection {
                         */
                         "JOIN Histograms h1 ON ( " +
                            "p1.pyroID = h1.pyroID AND " +
-                           "h1.position < %d" +
+                           "h1.position < ?" +
                         ") " +
                         /*
                         "JOIN Histograms h2 ON ( " +
@@ -178,15 +198,67 @@ public class CPLOPConnection {
                                      ") AND " +
                          "i.isoID not LIKE 'ES-%%' AND " +
                          "i.isoID not LIKE 'STEC%%' " +
-                         "AND i.isoID not LIKE 'Pp-%%' " +
+                         "AND i.isoID not LIKE 'Pp-%%' %s" +
                          /*
                          "i.isoID not in (SELECT t.isoID " +
                                          "FROM Isolates t " +
                                          "WHERE t.isoID LIKE 'ES-%%' AND " +
                                                "right(t.isoID, 3) <= 448) " +
                          */
-                   "ORDER BY i.isoID, p1.pyroID, h1.position " +
-                   "LIMIT %d OFFSET %d",
+                   "ORDER BY i.isoID, p1.pyroID, h1.position ",
+
+      //Restricts a data query to the rows after the last row of the previous
+      //page, in the order of the data queries' ORDER BY
+      PAGE_KEY_CLAUSE = "AND (i.isoID > ? OR (i.isoID = ? AND " +
+                                             "(p1.pyroID > ? OR (p1.pyroID = ? AND " +
+                                                                "h1.position > ?)))) ",
+
+      PAGE_LIMIT_CLAUSE = "LIMIT ?",
+
+      //Bounds of a range of isolates loaded by one partition
+      RANGE_FROM_CLAUSE = "AND i.isoID >= ? ",
+      RANGE_TO_CLAUSE = "AND i.isoID < ? ",
+
+      TEST_RUN_ID_INSERT =
+         "INSERT IGNORE INTO test_runs (test_run_id, run_date, run_time, cluster_algorithm, " +
+                                       "average_strain_similarity, use_transform, ontology) " +
+         "VALUES (?, ?, ?, ?, ?, ?, ?)",
+
+      TEST_RUN_INSERT =
+         "INSERT IGNORE INTO test_runs (run_date, run_time, cluster_algorithm, " +
+                                "average_strain_similarity, use_transform) " +
+         "VALUES (?, ?, ?, ?, ?)",
+
+      LAST_INSERT_ID_QUERY = "SELECT last_insert_id()",
+
+      RUN_PERF_INSERT =
+         "INSERT IGNORE INTO test_run_performance(test_run_id, update_id, " +
+                                                 "update_size, run_time) " +
+         "VALUES (?, ?, ?, ?)",
+
+      STRAIN_INSERT =
+         "INSERT IGNORE INTO test_run_strain_link (test_run_id, cluster_id, " +
+                                                  "cluster_threshold, strain_diameter, " +
+                                                  "average_isolate_similarity) " +
+         "VALUES (?, ?, ?, ?, ?)",
+
+      ISOLATE_STRAIN_INSERT =
+         "INSERT IGNORE INTO real_isolate_strains(test_run_id, cluster_id, " +
+                                                 "cluster_threshold, real_isolate_id) " +
+         "VALUES (?, ?, ?, ?)",
+
+      FULL_KEY_QUERY = "SELECT i.isoID FROM Isolates i ORDER BY i.isoID",
+      DIRECTED_KEY_QUERY = "SELECT i.isoID FROM Isolates i " +
+                                "JOIN " + SELECTION_TABLE + " sel ON (sel.isoID = i.isoID) " +
+                           "ORDER BY i.isoID",
+
+      //Session temporary table of selected isoIDs, created with the same
+      //column type as Isolates.isoID so the join can use its index
+      SELECTION_CREATE = "CREATE TEMPORARY TABLE IF NOT EXISTS " + SELECTION_TABLE + " " +
+                         "(PRIMARY KEY (isoID)) " +
+                         "SELECT isoID FROM Isolates LIMIT 0",
+      SELECTION_CLEAR = "DELETE FROM " + SELECTION_TABLE,
+      SELECTION_INSERT = "INSERT IGNORE INTO " + SELECTION_TABLE + " (isoID) VALUES (?)",
 
       META_QUERY = "SELECT distinct test_isolate_id, CONCAT(name_prefix, '-', name_suffix) as isoID %s " +
                    "FROM test_isolates " +
@@ -218,21 +290,66 @@ public class CPLOPConnection {
                          "WHERE isoID in (%s) ";
 
 
+   /**
+    * Connects to CPLOP through the shared connection pool, failing now if
+    * CPLOP cannot be reached. Every CPLOPConnection uses the same pool, so
+    * getConnection() should normally be used instead.
+    */
    public CPLOPConnection() throws SQLException, DriverException {
-      try {
-         Class.forName(DB_DRIVER);
+      this(getPool());
 
-         mConn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
-      }
+      try { Class.forName(DB_DRIVER); }
       catch (ClassNotFoundException classEx) {
          throw new DriverException("Unable to instantiate DB Driver: " + DB_DRIVER);
       }
+
+      mPool.release(mPool.borrow());
+   }
+
+   private CPLOPConnection(ConnectionPool pool) { mPool = pool; }
+
+   /**
+    * @return CPLOPConnection The CPLOPConnection shared by the whole
+    * program. Each query borrows a connection from the shared pool for as
+    * long as it runs, so the shared CPLOPConnection may be used from several
+    * threads; connections are opened when they are first needed.
+    */
+   public static synchronized CPLOPConnection getConnection() {
+      if (sShared == null) {
+         try { Class.forName(DB_DRIVER); }
+         catch (ClassNotFoundException classEx) {
+            throw new IllegalStateException("Unable to instantiate DB Driver: " + DB_DRIVER,
+                                            classEx);
+         }
+
+         sShared = new CPLOPConnection(getPool());
+      }
+
+      return sShared;
+   }
+
+   /*
+    * The pool has "connection pool size" connections, but at least as many
+    * as the "loader connections" that partitioned loads use at once.
+    */
+   private static synchronized ConnectionPool getPool() {
+      if (sPool == null) {
+         Integer poolSize = Configuration.getInt(PARAM_SECTION, POOL_SIZE_KEY);
+         Integer loaderConns = Configuration.getInt(PARAM_SECTION, LOADER_CONNS_KEY);
+
+         sPool = new ConnectionPool(DB_URL, DB_USER, DB_PASS, Math.max(
+            poolSize != null ? poolSize.intValue() : DEFAULT_POOL_SIZE,
+            loaderConns != null ? loaderConns.intValue() : 1
+         ));
+      }
+
+      return sPool;
    }
 
    public Map<String, Set<String>> getDistinctValues(String tableName, List<String> colNames,
                                                      List<String> filterValues) throws SQLException {
       Map<String, Set<String>> distinctValues = new HashMap<String, Set<String>>();
-      Statement statement = null;
+      PooledConnection conn = null;
       ResultSet results = null;
 
       String colNameString = "";
@@ -246,8 +363,8 @@ public class CPLOPConnection {
          whereClause = "WHERE " + colNames.get(colNames.size() - 1) +
                        " IN (%s) ";
 
-         for (String filterVal : filterValues) {
-            whereFilter += ",'" + filterVal + "'";
+         for (int filterNdx = 0; filterNdx < filterValues.size(); filterNdx++) {
+            whereFilter += ",?";
          }
 
          whereClause = String.format(whereClause, whereFilter.substring(1));
@@ -261,8 +378,14 @@ public class CPLOPConnection {
       System.out.println(query);
 
       try {
-         statement = mConn.createStatement();
-         results = statement.executeQuery(query);
+         conn = mPool.borrow();
+         PreparedStatement statement = conn.prepare(query);
+
+         for (int filterNdx = 0; filterNdx < filterValues.size(); filterNdx++) {
+            statement.setString(filterNdx + 1, filterValues.get(filterNdx));
+         }
+
+         results = statement.executeQuery();
 
          while (results.next()) {
             if (colNames.size() == 1) {
@@ -296,7 +419,7 @@ public class CPLOPConnection {
       catch (SQLException sqlEx) { throw sqlEx; }
       finally {
          if (results != null) { results.close(); }
-         if (statement != null) { statement.close(); }
+         if (conn != null) { mPool.release(conn); }
       }
 
       /*
@@ -319,7 +442,7 @@ public class CPLOPConnection {
       ArrayList<Object[]> dataTable = new ArrayList<Object[]>();
       Object[] tmpDataRow = null;
 
-      Statement statement = null;
+      PooledConnection conn = null;
       ResultSet results = null;
 
       String concatColList = null;
@@ -332,10 +455,8 @@ public class CPLOPConnection {
       if (concatColList == null) { return null; }
 
       try {
-         statement = mConn.createStatement();
-         results = statement.executeQuery(
-            String.format(ISOLATE_TABLE_QUERY, concatColList)
-         );
+         conn = mPool.borrow();
+         results = conn.prepare(String.format(ISOLATE_TABLE_QUERY, concatColList)).executeQuery();
 
          while (results.next()) {
             tmpDataRow = new Object[colList.length];
@@ -349,183 +470,347 @@ public class CPLOPConnection {
       }
       catch (Exception err) { err.printStackTrace(); }
       finally {
-         if (statement != null) { statement.close(); }
          if (results != null) { results.close(); }
+         if (conn != null) { mPool.release(conn); }
       }
 
       Object[][] isoDataTable = null;
       return dataTable.toArray(isoDataTable);
    }
 
+   /**
+    * Loads the isolates with the given isoIDs, or every isolate if isoIdList
+    * is null, over as many connections as "loader connections" in the
+    * [parameters] section of the configuration asks for.
+    */
    public List<Isolate> getIsolateData(int dataSize, String isoIdList) throws SQLException {
+      Integer numConns = Configuration.getInt(PARAM_SECTION, LOADER_CONNS_KEY);
+
+      if (numConns != null && numConns.intValue() > 1) {
+         return getPartitionedIsolateData(isoIdList, numConns.intValue(), DEFAULT_PAGE_SIZE);
+      }
+
       return getIsolateData(dataSize, DEFAULT_PAGE_SIZE, isoIdList);
    }
 
+   /**
+    * Loads the isolates, and their pyroprints, with the given isoIDs, or
+    * every isolate if isoIdList is null. Rows are read in pages of pageSize
+    * rows, each page starting after the (isoID, pyroID, position) of the
+    * last row of the previous page, so no page re-reads earlier rows. The
+    * isolate being built when a page ends is finished by the next page.
+    */
    public List<Isolate> getIsolateData(int dataSize, int pageSize, String isoIdList) throws SQLException {
-      Statement statement = null;
+      return getIsolateRange(dataSize, pageSize, parseIsoIds(isoIdList), null, null);
+   }
+
+   /**
+    * Splits the isolates with the given isoIDs, or every isolate, into
+    * numPartitions ranges of isoIDs and loads each range over its own pooled
+    * connection at the same time, as getIsolateData would. At most as many
+    * ranges as the pool has connections are loaded at once, and if any range
+    * fails to load the whole load fails.
+    *
+    * @return List<Isolate> The isolates of every range, in isoID order.
+    */
+   public List<Isolate> getPartitionedIsolateData(String isoIdList, int numPartitions,
+                                                  final int pageSize) throws SQLException {
+      List<String> selectedIds = parseIsoIds(isoIdList);
+      List<String> keys = getIsolateKeys(selectedIds);
+      List<Future<List<Isolate>>> partitions = new ArrayList<Future<List<Isolate>>>();
+
+      if (keys.isEmpty()) { return new ArrayList<Isolate>(); }
+
+      numPartitions = Math.max(1, Math.min(numPartitions, keys.size()));
+      ExecutorService threadPool = Executors.newFixedThreadPool(
+         Math.min(numPartitions, mPool.getMaxSize())
+      );
+
+      try {
+         //each range starts at its first key and ends before the next range's
+         for (int partNdx = 0; partNdx < numPartitions; partNdx++) {
+            int startNdx = (int) (((long) partNdx * keys.size()) / numPartitions);
+            int endNdx = (int) (((long) (partNdx + 1) * keys.size()) / numPartitions);
+
+            final String fromIsoId = partNdx > 0 ? keys.get(startNdx) : null;
+            final String toIsoId = endNdx < keys.size() ? keys.get(endNdx) : null;
+
+            //a directed range only needs the selected isoIDs inside it
+            final List<String> rangeIds = selectedIds == null ? null :
+               new ArrayList<String>(keys.subList(startNdx, endNdx));
+
+            partitions.add(threadPool.submit(new Callable<List<Isolate>>() {
+               public List<Isolate> call() throws SQLException {
+                  return getIsolateRange(0, pageSize, rangeIds, fromIsoId, toIsoId);
+               }
+            }));
+         }
+
+         List<Isolate> isoData = new ArrayList<Isolate>();
+
+         for (Future<List<Isolate>> partition : partitions) {
+            isoData.addAll(partition.get());
+         }
+
+         return isoData;
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while loading isolates", interruptErr);
+      }
+      catch (java.util.concurrent.ExecutionException execErr) {
+         if (execErr.getCause() instanceof SQLException) {
+            throw (SQLException) execErr.getCause();
+         }
+
+         throw new SQLException("Error while loading isolates", execErr.getCause());
+      }
+      //a failed range fails the load, so the other ranges are not finished
+      finally { threadPool.shutdownNow(); }
+   }
+
+   /*
+    * The isoIDs of the selected isolates that exist, or of every isolate, in
+    * the database's order, to split them into ranges of about the same
+    * number of isolates.
+    */
+   private List<String> getIsolateKeys(List<String> selectedIds) throws SQLException {
+      PooledConnection conn = mPool.borrow();
+      ResultSet results = null;
+      List<String> isoIds = new ArrayList<String>();
+
+      try {
+         if (selectedIds != null) { selectIsolates(conn, selectedIds); }
+
+         results = conn.prepare(selectedIds != null ? DIRECTED_KEY_QUERY :
+                                                      FULL_KEY_QUERY).executeQuery();
+
+         while (results.next()) { isoIds.add(results.getString(1)); }
+      }
+      finally {
+         if (results != null) { results.close(); }
+         mPool.release(conn);
+      }
+
+      return isoIds;
+   }
+
+   /*
+    * Loads the isolates with isoIDs from fromIsoId, inclusive, to toIsoId,
+    * exclusive; a null bound leaves that end of the range open. Only the
+    * given isoIDs are loaded, unless isoIds is null.
+    */
+   private List<Isolate> getIsolateRange(int dataSize, int pageSize, List<String> isoIds,
+                                         String fromIsoId, String toIsoId) throws SQLException {
+      PooledConnection conn = null;
+      PreparedStatement firstPageSQL = null, nextPageSQL = null;
       ResultSet results = null;
 
       byte pyroLen = 96;
-      int pyroId = -1, tmpPyroId = -1;
-      List<Isolate> isoData = new ArrayList<Isolate>(dataSize);
-      String isoId = null, tmpIsoId = null, regName = null, dsName = null;
-      //Extra metadata
-      String hostId = null, source = null, location = null, date = null;
+      final List<Isolate> isoData = new ArrayList<Isolate>(dataSize);
+      IsolateAssembler assembler = new IsolateAssembler(new IsolateHandler() {
+         public void isolateLoaded(Isolate isolate) { isoData.add(isolate); }
+      });
 
-      Isolate tmpIso = null;
-      ITSRegion tmpRegion = null;
-      Pyroprint tmpPyro = null;
+      String rangeClause = (fromIsoId != null ? RANGE_FROM_CLAUSE : "") +
+                           (toIsoId != null ? RANGE_TO_CLAUSE : "");
+      int numPageRows;
 
-      int pageNdx = 0;
-      boolean hasMoreData;
+      System.out.println(isoIds != null ? "Executing directed data query" :
+                                          "Executing full data query");
 
       try {
+         conn = mPool.borrow();
+
+         if (isoIds != null) { selectIsolates(conn, isoIds); }
+
+         firstPageSQL = prepareDataQuery(conn, isoIds != null, rangeClause, PAGE_LIMIT_CLAUSE);
+         nextPageSQL = prepareDataQuery(conn, isoIds != null, rangeClause + PAGE_KEY_CLAUSE,
+                                        PAGE_LIMIT_CLAUSE);
+
          do {
-            hasMoreData = false;
-            statement = mConn.createStatement();
-            //3 Data Query Variables:
+            PreparedStatement pageSQL = assembler.mLastIsoId == null ? firstPageSQL : nextPageSQL;
+            int paramNdx = 1;
+
+            //Data Query Variables:
             //    Length of Pyroprint
+            //    Bounds of the isoID range, if any
+            //    Key of the last row read, after the first page
             //    Page size
-            //    Page offset
-
-            /*
-            System.out.println(String.format(DATA_QUERY,
-               pyroLen,
-               Math.min(pageSize, peakDataSize - (pageSize * pageNdx)),
-               (pageSize * pageNdx)
-            ));
+            pageSQL.setInt(paramNdx++, pyroLen);
 
-            results = statement.executeQuery(String.format(DATA_QUERY,
-               pyroLen, 
-               Math.min(pageSize, peakDataSize - (pageSize * pageNdx)),
-               (pageSize * pageNdx)
-            ));
-            */
+            if (fromIsoId != null) { pageSQL.setString(paramNdx++, fromIsoId); }
+            if (toIsoId != null) { pageSQL.setString(paramNdx++, toIsoId); }
 
-            if (isoIdList != null) {
-               System.out.println("Executing directed data query");
-               System.out.println(String.format(DIRECTED_DATA_QUERY,
-                  pyroLen, isoIdList, pageSize,
-                  (pageSize * pageNdx)
-               ));
-               results = statement.executeQuery(String.format(DIRECTED_DATA_QUERY,
-                  pyroLen, isoIdList, pageSize,
-                  (pageSize * pageNdx)
-               ));
-            }
-            else if (isoIdList == null) {
-               System.out.println("Executing full data query");
-               System.out.println(String.format(FULL_DATA_QUERY,
-                  pyroLen, pageSize,
-                  (pageSize * pageNdx)
-               ));
-               results = statement.executeQuery(String.format(FULL_DATA_QUERY,
-                  pyroLen, pageSize,
-                  (pageSize * pageNdx)
-               ));
+            if (assembler.mLastIsoId != null) {
+               pageSQL.setString(paramNdx++, assembler.mLastIsoId);
+               pageSQL.setString(paramNdx++, assembler.mLastIsoId);
+               pageSQL.setInt(paramNdx++, assembler.mLastPyroId);
+               pageSQL.setInt(paramNdx++, assembler.mLastPyroId);
+               pageSQL.setInt(paramNdx++, assembler.mLastPosition);
             }
 
-            if (results.next()) {
-               hasMoreData = true;
-               pageNdx++;
-               results.previous();
-            }
+            pageSQL.setInt(paramNdx++, pageSize);
+
+            results = pageSQL.executeQuery();
+            numPageRows = 0;
 
             while (results.next()) {
-               //int isoIdNum = results.getInt(1);
-               tmpIsoId = results.getString(1);
-               tmpPyroId = results.getInt(2);
-               regName = results.getString(3);
-               dsName = results.getString(4);
-               float pHeight = results.getFloat(5);
-               byte position = results.getByte(6);
-
-               /*
-                * Extra metadata
-                */
-               hostId = results.getString(7);
-               source = results.getString(8);
-               location = results.getString(9);
-               date = results.getString(10);
-
-               byte dispLen = -1;
-               if (regName.equals("16-23")) { dispLen = (byte) m16sDispLen; }
-               else if (regName.equals("23-5")) { dispLen = (byte) m23sDispLen; }
-
-               if (isoId == null || !tmpIsoId.equals(isoId)) {
-                  isoId = tmpIsoId;
-                  //System.out.println("new Isolate: " + isoId);
-
-                  tmpIso = new Isolate(isoId);
-                  tmpRegion = new ITSRegion(regName);
-
-                  //System.err.println("first region: " + regName);
-
-                  tmpIso.getData().add(tmpRegion);
-
-                  isoData.add(tmpIso);
-
-                  //Extra metadata
-                  tmpIso.setHost(hostId);
-                  tmpIso.setSource(source);
-                  tmpIso.setLoc(location);
-                  tmpIso.setDate(date);
-               }
+               assembler.addRow(results);
+               numPageRows++;
+            }
 
-               if (tmpRegion == null || !tmpRegion.getName().equals(regName)) {
-                  tmpRegion = new ITSRegion(regName);
-                  //System.err.println("new Region: " + regName);
+            results.close();
+            results = null;
 
-                  if (tmpIso != null) { tmpIso.getData().add(tmpRegion); }
-               }
+            //a short page is the last one
+         } while (numPageRows == pageSize);
 
-               if (tmpPyroId != pyroId) {
-                  pyroId = tmpPyroId;
+         assembler.finish();
+      }
+      finally {
+         if (results != null) { results.close(); }
+         if (conn != null) { mPool.release(conn); }
+      }
 
-                  tmpPyro = new Pyroprint(String.valueOf(pyroId), dispLen, dsName);
+      List<Isolate> finalIsoData = new ArrayList<Isolate>(isoData.size());
 
-                  tmpRegion.getData().add(tmpPyro);
-               }
+      for (Isolate iso : isoData) {
+         if (hasBothRegions(iso)) {
+            finalizePyroprints(iso);
+            finalIsoData.add(iso);
+         }
+      }
 
-               if (tmpPyro != null) {
-                  if (!tmpPyro.addDispensation(position, pHeight)) {
-                     if (position < dispLen) {
-                        System.out.println("pyroprint peak mismatch!");
-                        System.out.printf("Found peak %d, expected %d\n", position,
-                                          tmpPyro.getData().size());
-                     }
-                  }
-               }
-            }
+      return finalIsoData;
+   }
+
+   /**
+    * Reads the isolates with the given isoIDs, or every isolate, in one
+    * forward-only query and hands each one to the handler as soon as its
+    * last row has been read, on the calling thread. Isolates without both
+    * regions are skipped; pyroprints are not finalized.
+    *
+    * @param fetchSize The number of rows the driver fetches at a time.
+    * Integer.MIN_VALUE makes the MySQL and MariaDB drivers stream rows one
+    * at a time instead of reading the whole result first.
+    */
+   public void streamIsolateData(String isoIdList, int fetchSize,
+                                 final IsolateHandler handler) throws SQLException {
+      PooledConnection conn = mPool.borrow();
+      ResultSet results = null;
+
+      byte pyroLen = 96;
+      IsolateAssembler assembler = new IsolateAssembler(new IsolateHandler() {
+         public void isolateLoaded(Isolate isolate) {
+            if (hasBothRegions(isolate)) { handler.isolateLoaded(isolate); }
+         }
+      });
 
-            //if (isoIdList == null) { break; }
-         } while (hasMoreData);
+      System.out.println(isoIdList != null ? "Executing directed data stream" :
+                                             "Executing full data stream");
+
+      try {
+         List<String> isoIds = parseIsoIds(isoIdList);
 
+         if (isoIds != null) { selectIsolates(conn, isoIds); }
+
+         PreparedStatement dataSQL = prepareDataQuery(conn, isoIds != null, "", "");
+         dataSQL.setFetchSize(fetchSize);
+         dataSQL.setInt(1, pyroLen);
+
+         results = dataSQL.executeQuery();
+
+         while (results.next()) { assembler.addRow(results); }
+
+         assembler.finish();
       }
-      catch (Exception err) { err.printStackTrace(); }
       finally {
-         if (statement != null) { statement.close(); }
          if (results != null) { results.close(); }
+         mPool.release(conn);
       }
+   }
 
-      List<Isolate> finalIsoData = new ArrayList<Isolate>(isoData.size());
+   /**
+    * Computes each of the isolate's pyroprints' unit vectors; see
+    * Pyroprint.finalizePeaks.
+    */
+   public static void finalizePyroprints(Isolate iso) {
+      for (ITSRegion region : iso.getData()) {
+         for (Pyroprint pyro : region.getData()) { pyro.finalizePeaks(); }
+      }
+   }
 
-      for (Isolate iso : isoData) {
-         if (iso.getData().size() != 2) {
-            System.err.printf("Isolate %s has %d regions\n",
-               iso.getName(), iso.getData().size());
+   private static boolean hasBothRegions(Isolate iso) {
+      if (iso.getData().size() != 2) {
+         System.err.printf("Isolate %s has %d regions\n",
+            iso.getName(), iso.getData().size());
+         return false;
+      }
+
+      return true;
+   }
+
+   private PreparedStatement prepareDataQuery(PooledConnection conn, boolean directed,
+                                              String keyClause, String limitClause)
+                                              throws SQLException {
+      return conn.prepare(String.format(directed ? DIRECTED_DATA_QUERY : FULL_DATA_QUERY,
+                                        keyClause) + limitClause);
+   }
+
+   /*
+    * Fills the connection's selection table with the given isoIDs, replacing
+    * any earlier selection, for the directed queries to join against. The
+    * table is temporary, so each connection has its own.
+    */
+   private void selectIsolates(PooledConnection conn, List<String> isoIds) throws SQLException {
+      conn.prepare(SELECTION_CREATE).executeUpdate();
+      conn.prepare(SELECTION_CLEAR).executeUpdate();
+
+      PreparedStatement insertSQL = conn.prepare(SELECTION_INSERT);
+      int numBatched = 0;
+
+      for (String isoId : isoIds) {
+         insertSQL.setString(1, isoId);
+         insertSQL.addBatch();
+
+         if (++numBatched == BATCH_SIZE) {
+            insertSQL.executeBatch();
+            numBatched = 0;
          }
-         else if (iso.getData().size() >= 2) {
-            finalIsoData.add(iso);
+      }
+
+      if (numBatched > 0) { insertSQL.executeBatch(); }
+   }
+
+   /*
+    * Splits a comma separated list of isoIDs, each optionally quoted, as
+    * read from an isoID file.
+    *
+    * @return List<String> The isoIDs, or null if isoIdList is null.
+    */
+   private static List<String> parseIsoIds(String isoIdList) {
+      if (isoIdList == null) { return null; }
+
+      List<String> isoIds = new ArrayList<String>();
+
+      for (String isoId : isoIdList.split(",")) {
+         isoId = isoId.trim();
+
+         if (isoId.length() > 1 && (isoId.startsWith("'") || isoId.startsWith("\"")) &&
+             isoId.endsWith(isoId.substring(0, 1))) {
+            isoId = isoId.substring(1, isoId.length() - 1);
          }
+
+         if (isoId.length() > 0) { isoIds.add(isoId); }
       }
 
-      return finalIsoData;
+      return isoIds;
    }
 
    //TODO
    public void getIsolateMetaData(List<Isolate> isoData, Ontology ont, int dataSize) {
-      Statement statement = null;
+      PooledConnection conn = null;
       ResultSet results = null;
 
       String metaLabels[] = null;
@@ -542,10 +827,12 @@ public class CPLOPConnection {
          //metaIDs += "," + isoData.get(ndx).getIdNum();
 
          //when using isoID
-         metaIDs += ",'" + isoData.get(ndx).getName() + "'";
+         metaIDs += ",?";
       }
 
       try {
+         conn = mPool.borrow();
+
          for (int pageNdx = 0; pageNdx < Math.ceil((float) dataSize / pageSize); pageNdx++) {
             /*
             System.out.println(String.format(META_QUERY,
@@ -562,7 +849,14 @@ public class CPLOPConnection {
             System.out.println(String.format(JOSH_META_QUERY,
                metaColumns.substring(1), metaIDs.substring(1)
             ));
-            statement = mConn.createStatement();
+            PreparedStatement statement = conn.prepare(String.format(JOSH_META_QUERY,
+               metaColumns.substring(1), metaIDs.substring(1)
+            ));
+
+            for (int ndx = 0; ndx < isoData.size(); ndx++) {
+               statement.setString(ndx + 1, isoData.get(ndx).getName());
+            }
+
             /*
             results = statement.executeQuery(String.format(META_QUERY,
                metaColumns, metaIDs.substring(1)
@@ -574,9 +868,7 @@ public class CPLOPConnection {
                metaColumns.substring(1), metaIDs.substring(1)
             ));
             */
-            results = statement.executeQuery(String.format(JOSH_META_QUERY,
-               metaColumns.substring(1), metaIDs.substring(1)
-            ));
+            results = statement.executeQuery();
 
             while (results.next()) {
                //TODO wtf why was this ever 2? maybe because i used to have
@@ -605,57 +897,74 @@ public class CPLOPConnection {
 
                isoData.get(isoNdx).setMetaData(metaLabels);
             }
+
+            results.close();
+            results = null;
          }
       }
       catch (java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
+      finally {
+         try { if (results != null) { results.close(); } }
+         catch (java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
+
+         if (conn != null) { mPool.release(conn); }
+      }
+   }
+
+   /**
+    * Stores the time taken by each update of an incremental run.
+    *
+    * @param perfRows One row per update: the test run ID, update ID, update
+    * size and run time.
+    */
+   public void insertRunPerf(List<Object[]> perfRows) throws SQLException {
+      PooledConnection conn = mPool.borrow();
+
+      try { insertRows(conn.prepare(RUN_PERF_INSERT), perfRows); }
+      finally { mPool.release(conn); }
    }
 
-   public void insertRunPerf(String insertValues) throws SQLException {
-      PreparedStatement insertSQL = null;
+   /**
+    * Stores the strains found by a test run and the isolates in each strain.
+    *
+    * @param strainRows One row per strain: the test run ID, cluster ID,
+    * cluster threshold, strain diameter and average isolate similarity.
+    * @param isolateRows One row per isolate in a strain: the test run ID,
+    * cluster ID, cluster threshold and isolate ID.
+    */
+   public void insertIsolateAndStrainData(List<Object[]> strainRows,
+                                          List<Object[]> isolateRows) throws SQLException {
+      PooledConnection conn = mPool.borrow();
 
       try {
-         insertSQL = mConn.prepareStatement(String.format(
-            "INSERT IGNORE INTO test_run_performance(test_run_id, update_id, " +
-                                             "update_size, run_time) " +
-            "VALUES %s", insertValues
-         ));
-         insertSQL.executeUpdate();
+         insertRows(conn.prepare(STRAIN_INSERT), strainRows);
+         insertRows(conn.prepare(ISOLATE_STRAIN_INSERT), isolateRows);
       }
-      catch (SQLException sqlEx) { throw sqlEx; }
-      finally { if (insertSQL != null) { insertSQL.close(); } }
+      finally { mPool.release(conn); }
    }
 
-   public void insertIsolateAndStrainData(String strainValues, String isolateValues) throws SQLException {
-      PreparedStatement strainSQL = null, isolateSQL = null;
-
-      String strainInsert = "INSERT IGNORE INTO test_run_strain_link (test_run_id, cluster_id, " +
-                                                              "cluster_threshold, strain_diameter, " +
-                                                              "average_isolate_similarity) " +
-                            "VALUES %s";
-      String isolateInsert = "INSERT IGNORE INTO real_isolate_strains(test_run_id, cluster_id, " +
-                                                               "cluster_threshold, real_isolate_id) " +
-                             "VALUES %s";
+   /*
+    * Binds each row to the insert's parameters, in order, and sends the rows
+    * in batches.
+    */
+   private static void insertRows(PreparedStatement insertSQL,
+                                  List<Object[]> rows) throws SQLException {
+      int numBatched = 0;
 
-      try {
-         if (!strainValues.equals("")) {
-            strainSQL = mConn.prepareStatement(String.format(
-               strainInsert, strainValues
-            ));
-            strainSQL.executeUpdate();
+      for (Object[] row : rows) {
+         for (int colNdx = 0; colNdx < row.length; colNdx++) {
+            insertSQL.setObject(colNdx + 1, row[colNdx]);
          }
 
-         if (!isolateValues.equals("")) {
-            isolateSQL = mConn.prepareStatement(String.format(
-               isolateInsert, isolateValues
-            ));
-            isolateSQL.executeUpdate();
+         insertSQL.addBatch();
+
+         if (++numBatched == BATCH_SIZE) {
+            insertSQL.executeBatch();
+            numBatched = 0;
          }
       }
-      catch (SQLException sqlEx) { throw sqlEx; }
-      finally {
-         if (strainSQL != null) { strainSQL.close(); }
-         if (isolateSQL != null) { isolateSQL.close(); }
-      }
+
+      if (numBatched > 0) { insertSQL.executeBatch(); }
    }
 
    private String getElapsedTime(long clusterTime) {
@@ -669,56 +978,72 @@ public class CPLOPConnection {
    public void insertTestRun(int runID, long runTime, String algorith, String ontName,
                              float interStrainSim, byte use_transform) throws SQLException {
       Timestamp runDate = new Timestamp(new Date().getTime());
-      PreparedStatement insertSQL = null;
-
-      String insertQuery = String.format(
-         "INSERT IGNORE INTO test_runs (test_run_id, run_date, run_time, cluster_algorithm, " +
-                                       "average_strain_similarity, use_transform, ontology) " +
-         "VALUES (%d, ?, '%s', '%s', %.04f, %d, '%s')",
-         runID, getElapsedTime(runTime), algorith, interStrainSim,
-         use_transform, ontName
-      );
+      PooledConnection conn = mPool.borrow();
 
       try {
-         insertSQL = mConn.prepareStatement(insertQuery);
-         insertSQL.setTimestamp(1, runDate);
+         PreparedStatement insertSQL = conn.prepare(TEST_RUN_ID_INSERT);
+
+         insertSQL.setInt(1, runID);
+         insertSQL.setTimestamp(2, runDate);
+         insertSQL.setString(3, getElapsedTime(runTime));
+         insertSQL.setString(4, algorith);
+         insertSQL.setString(5, String.format("%.04f", interStrainSim));
+         insertSQL.setByte(6, use_transform);
+         insertSQL.setString(7, ontName);
          insertSQL.executeUpdate();
+
+         recordLastInsertId(conn);
       }
       catch (SQLException sqlEx) { throw sqlEx; }
-      finally { if (insertSQL != null) { insertSQL.close(); } }
+      finally { mPool.release(conn); }
    }
 
    public void insertTestRun(long runTime, String algorith, float interStrainSim,
                              byte use_transform) throws SQLException {
       Timestamp runDate = new Timestamp(new Date().getTime());
-      PreparedStatement insertSQL = null;
-
-      String insertQuery = String.format(
-         "INSERT IGNORE INTO test_runs (run_date, run_time, cluster_algorithm, " +
-                                "average_strain_similarity, use_transform) " +
-         "VALUES (?, '%s', '%s', %.04f, %d)",
-         getElapsedTime(runTime), algorith, interStrainSim, use_transform
-      );
+      PooledConnection conn = mPool.borrow();
 
       try {
-         insertSQL = mConn.prepareStatement(insertQuery);
+         PreparedStatement insertSQL = conn.prepare(TEST_RUN_INSERT);
+
          insertSQL.setTimestamp(1, runDate);
+         insertSQL.setString(2, getElapsedTime(runTime));
+         insertSQL.setString(3, algorith);
+         insertSQL.setString(4, String.format("%.04f", interStrainSim));
+         insertSQL.setByte(5, use_transform);
          insertSQL.executeUpdate();
+
+         recordLastInsertId(conn);
       }
       catch (SQLException sqlEx) { throw sqlEx; }
-      finally { if (insertSQL != null) { insertSQL.close(); } }
+      finally { mPool.release(conn); }
    }
 
+   /**
+    * @return int The last_insert_id() after this thread's last insertTestRun,
+    * which ran on whichever pooled connection was free at the time.
+    */
    public int getLastRunId() throws SQLException {
-      Statement stmt = null;
+      Integer lastInsertId = sLastInsertId.get();
+
+      if (lastInsertId != null) { return lastInsertId.intValue(); }
+
+      PooledConnection conn = mPool.borrow();
+
+      try { return queryLastInsertId(conn); }
+      finally { mPool.release(conn); }
+   }
+
+   private void recordLastInsertId(PooledConnection conn) throws SQLException {
+      sLastInsertId.set(new Integer(queryLastInsertId(conn)));
+   }
+
+   private int queryLastInsertId(PooledConnection conn) throws SQLException {
       ResultSet results = null;
       int newRunId = -1;
 
-      String query = String.format("SELECT last_insert_id()");
-
       try {
-         stmt = mConn.createStatement();
-         results = stmt.executeQuery(query);
+         results = conn.prepare(LAST_INSERT_ID_QUERY).executeQuery();
          int numRows = 0;
 
          while (results.next()) {
@@ -735,12 +1060,117 @@ public class CPLOPConnection {
       finally
       {
          if (results != null) { results.close(); }
-         if (stmt != null) { stmt.close(); }
       }
 
       return newRunId;
    }
 
+   /**
+    * Receives isolates as they are loaded.
+    */
+   public interface IsolateHandler {
+      public void isolateLoaded(Isolate isolate);
+   }
+
+   /*
+    * Builds isolates from the rows of a data query, which are sorted by
+    * isoID, pyroID and position, and hands each isolate on once a row of
+    * the next isolate, or the end of the rows, shows it is complete. Keeps
+    * the key of the last row read so a later page can start after it.
+    */
+   private static class IsolateAssembler {
+      private IsolateHandler mHandler;
+
+      private int pyroId = -1;
+      private String isoId = null;
+
+      private Isolate tmpIso = null;
+      private ITSRegion tmpRegion = null;
+      private Pyroprint tmpPyro = null;
+
+      private String mLastIsoId = null;
+      private int mLastPyroId = -1, mLastPosition = -1;
+
+      private IsolateAssembler(IsolateHandler handler) { mHandler = handler; }
+
+      private void addRow(ResultSet results) throws SQLException {
+         //int isoIdNum = results.getInt(1);
+         String tmpIsoId = results.getString(1);
+         int tmpPyroId = results.getInt(2);
+         String regName = results.getString(3);
+         String dsName = results.getString(4);
+         float pHeight = results.getFloat(5);
+         byte position = results.getByte(6);
+
+         /*
+          * Extra metadata
+          */
+         String hostId = results.getString(7);
+         String source = results.getString(8);
+         String location = results.getString(9);
+         String date = results.getString(10);
+
+         mLastIsoId = tmpIsoId;
+         mLastPyroId = tmpPyroId;
+         mLastPosition = position;
+
+         byte dispLen = -1;
+         if (regName.equals("16-23")) { dispLen = (byte) m16sDispLen; }
+         else if (regName.equals("23-5")) { dispLen = (byte) m23sDispLen; }
+
+         if (isoId == null || !tmpIsoId.equals(isoId)) {
+            if (tmpIso != null) { mHandler.isolateLoaded(tmpIso); }
+
+            isoId = tmpIsoId;
+            //System.out.println("new Isolate: " + isoId);
+
+            tmpIso = new Isolate(isoId);
+            tmpRegion = new ITSRegion(regName);
+
+            //System.err.println("first region: " + regName);
+
+            tmpIso.getData().add(tmpRegion);
+
+            //Extra metadata
+            tmpIso.setHost(hostId);
+            tmpIso.setSource(source);
+            tmpIso.setLoc(location);
+            tmpIso.setDate(date);
+         }
+
+         if (tmpRegion == null || !tmpRegion.getName().equals(regName)) {
+            tmpRegion = new ITSRegion(regName);
+            //System.err.println("new Region: " + regName);
+
+            if (tmpIso != null) { tmpIso.getData().add(tmpRegion); }
+         }
+
+         if (tmpPyroId != pyroId) {
+            pyroId = tmpPyroId;
+
+            tmpPyro = new Pyroprint(String.valueOf(pyroId), dispLen, dsName);
+
+            tmpRegion.getData().add(tmpPyro);
+         }
+
+         if (tmpPyro != null) {
+            if (!tmpPyro.addDispensation(position, pHeight)) {
+               if (position < dispLen) {
+                  System.out.println("pyroprint peak mismatch!");
+                  System.out.printf("Found peak %d, expected %d\n", position,
+                                    tmpPyro.getNumPeaks());
+               }
+            }
+         }
+      }
+
+      private void finish() {
+         if (tmpIso != null) { mHandler.isolateLoaded(tmpIso); }
+
+         tmpIso = null;
+      }
+   }
+
    /**
     * Exception for when there is a problem with the DB driver.
     */
@@ -0,0 +1,150 @@
+package com.drin.java.database;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A small pool of database connections, so that queries do not pay for a
+ * new connection each time. Connections are opened when they are first
+ * needed, up to the pool's size; beyond that, borrowers wait for one to be
+ * released.
+ *
+ * Each pooled connection keeps its recently used prepared statements by SQL
+ * text, so a query that is run again is not parsed again. Statements from
+ * prepare() belong to the connection and must not be closed by the caller.
+ */
+class ConnectionPool {
+   private static final int MAX_STATEMENTS = 32;
+
+   private final String mUrl, mUser, mPass;
+   private final int mMaxSize;
+
+   //only used while holding this pool's lock
+   private final LinkedList<PooledConnection> mIdle;
+   private int mNumOpen;
+
+   ConnectionPool(String url, String user, String pass, int maxSize) {
+      mUrl = url;
+      mUser = user;
+      mPass = pass;
+      mMaxSize = Math.max(1, maxSize);
+
+      mIdle = new LinkedList<PooledConnection>();
+      mNumOpen = 0;
+   }
+
+   int getMaxSize() { return mMaxSize; }
+
+   /**
+    * Takes an idle connection, opening one if the pool is not full, or
+    * waits for one to be released. Every borrowed connection must be given
+    * back with release().
+    */
+   PooledConnection borrow() throws SQLException {
+      synchronized (this) {
+         while (true) {
+            PooledConnection conn = mIdle.pollFirst();
+
+            if (conn != null) {
+               if (!conn.mConn.isClosed()) { return conn; }
+
+               mNumOpen--;
+            }
+            else if (mNumOpen < mMaxSize) {
+               mNumOpen++;
+               break;
+            }
+            else {
+               try { wait(); }
+               catch (InterruptedException interruptErr) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a connection",
+                                         interruptErr);
+               }
+            }
+         }
+      }
+
+      //connect without holding the lock, so other borrowers are not held up
+      try { return new PooledConnection(DriverManager.getConnection(mUrl, mUser, mPass)); }
+      catch (SQLException sqlErr) {
+         synchronized (this) {
+            mNumOpen--;
+            notifyAll();
+         }
+
+         throw sqlErr;
+      }
+   }
+
+   synchronized void release(PooledConnection conn) {
+      mIdle.addFirst(conn);
+      notifyAll();
+   }
+
+   /**
+    * Closes the idle connections. Connections that are borrowed are left
+    * open.
+    */
+   synchronized void closeIdle() {
+      for (PooledConnection conn : mIdle) {
+         try { conn.mConn.close(); }
+         catch (SQLException sqlErr) { sqlErr.printStackTrace(); }
+      }
+
+      mNumOpen -= mIdle.size();
+      mIdle.clear();
+      notifyAll();
+   }
+
+   static class PooledConnection {
+      private final Connection mConn;
+      private final Map<String, PreparedStatement> mStatements;
+
+      private PooledConnection(Connection conn) {
+         mConn = conn;
+
+         //least recently used statements are closed once there are too many
+         mStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+               if (size() <= MAX_STATEMENTS) { return false; }
+
+               try { eldest.getValue().close(); }
+               catch (SQLException sqlErr) { sqlErr.printStackTrace(); }
+
+               return true;
+            }
+         };
+      }
+
+      Connection getConnection() { return mConn; }
+
+      /**
+       * @return PreparedStatement A forward-only, read-only statement for the
+       * given SQL, reused from an earlier call if there was one, with its
+       * parameters cleared.
+       */
+      PreparedStatement prepare(String sql) throws SQLException {
+         PreparedStatement statement = mStatements.get(sql);
+
+         if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            return statement;
+         }
+
+         statement = mConn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                                            ResultSet.CONCUR_READ_ONLY);
+         mStatements.put(sql, statement);
+
+         return statement;
+      }
+   }
+}
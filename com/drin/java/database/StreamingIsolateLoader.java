@@ -0,0 +1,154 @@
+package com.drin.java.database;
+
+import com.drin.java.biology.Isolate;
+
+import com.drin.java.database.CPLOPConnection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import java.sql.SQLException;
+
+/**
+ * Loads isolates and compares them at the same time, instead of comparing
+ * only once the whole data set has been read. The calling thread streams
+ * the data query's rows and passes each isolate, as soon as its last row
+ * has been read, through a bounded queue to a pool of consumer threads. A
+ * consumer finalizes the isolate's pyroprints and compares it with every
+ * isolate consumed before it, which fills the shared SimilarityCache, so
+ * that most similarities are already known when loading ends.
+ *
+ * The queue keeps the reader from getting far ahead of the consumers.
+ */
+public class StreamingIsolateLoader {
+   private static final long POLL_INTERVAL = 100;
+
+   private CPLOPConnection mConn;
+   private int mNumThreads, mQueueSize, mFetchSize;
+
+   //isolates that have been finalized, in the order they were consumed
+   private List<Isolate> mConsumed;
+
+   public StreamingIsolateLoader(CPLOPConnection conn, int numThreads, int queueSize,
+                                 int fetchSize) {
+      mConn = conn;
+      mNumThreads = Math.max(1, numThreads);
+      mQueueSize = Math.max(1, queueSize);
+      mFetchSize = fetchSize;
+      mConsumed = new ArrayList<Isolate>();
+   }
+
+   /**
+    * Loads the isolates with the given isoIDs, or every isolate if isoIdList
+    * is null, like CPLOPConnection.getIsolateData.
+    *
+    * @return List<Isolate> The isolates with both regions, in the order they
+    * were read.
+    */
+   public List<Isolate> load(String isoIdList) throws SQLException {
+      final BlockingQueue<Isolate> isoQueue = new ArrayBlockingQueue<Isolate>(mQueueSize);
+      final List<Future<Void>> consumers = new ArrayList<Future<Void>>(mNumThreads);
+      final List<Isolate> isoData = new ArrayList<Isolate>();
+      final AtomicBoolean loadDone = new AtomicBoolean(false);
+
+      ExecutorService threadPool = Executors.newFixedThreadPool(mNumThreads);
+
+      synchronized (mConsumed) { mConsumed.clear(); }
+
+      try {
+         for (int threadNdx = 0; threadNdx < mNumThreads; threadNdx++) {
+            consumers.add(threadPool.submit(new Callable<Void>() {
+               public Void call() throws InterruptedException {
+                  while (true) {
+                     Isolate isolate = isoQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+                     if (isolate != null) { consume(isolate); }
+                     else if (loadDone.get() && isoQueue.isEmpty()) { return null; }
+                  }
+               }
+            }));
+         }
+
+         try {
+            mConn.streamIsolateData(isoIdList, mFetchSize, new CPLOPConnection.IsolateHandler() {
+               public void isolateLoaded(Isolate isolate) {
+                  isoData.add(isolate);
+                  enqueue(isoQueue, isolate, consumers);
+               }
+            });
+         }
+         finally { loadDone.set(true); }
+
+         waitFor(consumers);
+      }
+      finally { threadPool.shutdownNow(); }
+
+      return isoData;
+   }
+
+   /*
+    * Finalizes the isolate, then compares it with every isolate finalized
+    * before it. Each pair is compared by whichever of its isolates is
+    * consumed last.
+    */
+   private void consume(Isolate isolate) {
+      CPLOPConnection.finalizePyroprints(isolate);
+
+      Isolate[] earlier = null;
+
+      synchronized (mConsumed) {
+         earlier = mConsumed.toArray(new Isolate[mConsumed.size()]);
+         mConsumed.add(isolate);
+      }
+
+      for (Isolate other : earlier) { isolate.compareTo(other); }
+   }
+
+   /*
+    * Waits for room in the queue, giving up if a consumer has failed so that
+    * the reader is not left waiting on consumers that will never take from
+    * it.
+    */
+   private static void enqueue(BlockingQueue<Isolate> isoQueue, Isolate isolate,
+                               List<Future<Void>> consumers) {
+      try {
+         while (!isoQueue.offer(isolate, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            for (Future<Void> consumer : consumers) {
+               //consumers only stop early if they fail
+               if (consumer.isDone()) {
+                  waitFor(Collections.singletonList(consumer));
+                  throw new IllegalStateException("Isolate consumer stopped early");
+               }
+            }
+         }
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while loading isolates", interruptErr);
+      }
+   }
+
+   private static void waitFor(List<Future<Void>> tasks) {
+      try {
+         for (Future<Void> task : tasks) { task.get(); }
+      }
+      catch (InterruptedException interruptErr) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while loading isolates", interruptErr);
+      }
+      catch (java.util.concurrent.ExecutionException execErr) {
+         throw new IllegalStateException("Error while comparing isolates",
+                                         execErr.getCause());
+      }
+   }
+}
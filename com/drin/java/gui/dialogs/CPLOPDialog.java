@@ -120,9 +120,7 @@ public class CPLOPDialog extends JDialog {
 
       mDataSetType = new JComboBox<String>(DATA_TYPE_VALUES);
 
-      try { mConn = new CPLOPConnection(); }
-      catch(java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
-      catch(Exception err) { err.printStackTrace(); }
+      mConn = CPLOPConnection.getConnection();
 
       mSPAMInterface = MainWindow.getMainFrame().getSPAMInterface();
    }
@@ -114,9 +114,7 @@ public class InputDialog extends JDialog {
 
       mDataSetType = new JComboBox<String>(DATA_TYPE_VALUES);
 
-      try { mConn = new CPLOPConnection(); }
-      catch(java.sql.SQLException sqlErr) { sqlErr.printStackTrace(); }
-      catch(Exception err) { err.printStackTrace(); }
+      mConn = CPLOPConnection.getConnection();
    }
 
    public InputDialog() {
@@ -6,34 +6,29 @@ import com.drin.java.clustering.Cluster;
 import com.drin.java.metrics.DataMetric;
 
 public class ClusterAverageMetric extends DataMetric<Cluster> {
-   private int mLinkCount;
-
    public ClusterAverageMetric() {
-      this.reset();
+      super();
    }
 
    @Override
    public void apply(Cluster data_A, Cluster data_B) {
+      MetricState state = state();
+
       for (Clusterable<?> elem_A : data_A.getElements()) {
          for (Clusterable<?> elem_B : data_B.getElements()) {
-            mResult += elem_A.compareTo(elem_B);
-            mLinkCount++;
+            state.mResult += elem_A.compareTo(elem_B);
+            state.mCount++;
          }
       }
    }
 
-   @Override
-   public void reset() {
-      mResult = 0;
-      mLinkCount = 0;
-   }
-
    @Override
    public float result() {
-      float result = mResult;
+      MetricState state = state();
+      float result = state.mResult;
 
-      if (mLinkCount <= 0) { setError(-1); }
-      else { result /= mLinkCount; }
+      if (state.mCount <= 0) { setError(-1); }
+      else { result /= state.mCount; }
 
       this.reset();
       return result;
@@ -1,11 +1,23 @@
 package com.drin.java.metrics;
 
+/**
+ * The running result and error code of a DataMetric are kept per thread, so
+ * one metric can be applied from several threads at once as long as each
+ * thread retrieves its own result.
+ */
 public abstract class DataMetric<E> {
-   protected float mResult;
-   protected int mErrCode;
+   private final ThreadLocal<MetricState> mState = new ThreadLocal<MetricState>() {
+      @Override
+      protected MetricState initialValue() { return new MetricState(); }
+   };
 
    public DataMetric() { this.reset(); }
 
+   /**
+    * Returns the calling thread's running state for this DataMetric.
+    */
+   protected MetricState state() { return mState.get(); }
+
    /**
     * Computes a comparison between elem_A and elem_B such that the result is
     * accumulated with the result associated with this DataMetric. This is
@@ -19,7 +31,7 @@ public abstract class DataMetric<E> {
     * the metric has been applied.
     */
    public float result() {
-      float result = mResult;
+      float result = state().mResult;
 
       this.reset();
       return result;
@@ -30,25 +42,35 @@ public abstract class DataMetric<E> {
     * that this DataMetric is ready for computation and prevents the need to
     * instantiate additional DataMetrics.
     */
-   public void reset() { mResult = 0; }
+   public void reset() {
+      MetricState state = state();
+
+      state.mResult = 0;
+      state.mCount = 0;
+   }
 
    /**
     * Sets the error code associated with this DataMetric. This is a
     * convenience method, particularly for child classes.
     */
-   public void setError(int errCode) { mErrCode = errCode; }
+   public void setError(int errCode) { state().mErrCode = errCode; }
 
    /**
     * Clears the error code associated with this DataMetric. This ensures
     * that this DataMetric is ready for use and prevents the need to
     * instantiate additional DataMetrics.
     */
-   public void resetError() { mErrCode = 0; }
+   public void resetError() { state().mErrCode = 0; }
 
    /**
     * Returns the error code associated with this DataMetric. If the error
     * code is 0 then no error occurred during execution. If the error code
     * is -1 then there was an error during computation of this metric.
     */
-   public int getError() { return mErrCode; }
+   public int getError() { return state().mErrCode; }
+
+   protected static class MetricState {
+      public float mResult;
+      public int mCount, mErrCode;
+   }
 }
@@ -14,11 +14,10 @@ public class ITSRegionAverageMetric extends DataMetric<ITSRegion> {
                                TRANSFORM_ATTR    = "apply transform";
 
    private Boolean mTransform;
-   private int mPairCount;
    private float mAlpha, mBeta;
 
    public ITSRegionAverageMetric() {
-      this.reset();
+      super();
 
       mAlpha = 0.995f;
       mBeta = 0.99f;
@@ -26,15 +25,10 @@ public class ITSRegionAverageMetric extends DataMetric<ITSRegion> {
       mTransform = Configuration.getBoolean(PARAMETER_SECTION, TRANSFORM_ATTR);
    }
 
-   @Override
-   public void reset() {
-      super.reset();
-      mPairCount = 0;
-   }
-
    @Override
    public void apply(ITSRegion elem_A, ITSRegion elem_B) {
       if (elem_A.getName().equals(elem_B.getName())) {
+         MetricState state = state();
 
          for (Pyroprint pyro_A : elem_A.getData()) {
             for (Pyroprint pyro_B : elem_B.getData()) {
@@ -46,8 +40,8 @@ public class ITSRegionAverageMetric extends DataMetric<ITSRegion> {
                                           pyro_B.getName(), pyro_A.getPyroLen(),
                                           result));
 
-               mResult += result;
-               mPairCount++;
+               state.mResult += result;
+               state.mCount++;
             }
          }
 
@@ -56,15 +50,16 @@ public class ITSRegionAverageMetric extends DataMetric<ITSRegion> {
 
    @Override
    public float result() {
-      float result = mResult;
+      MetricState state = state();
+      float result = state.mResult;
 
-      if (mPairCount <= 0) { setError(-1); }
-      else { result /= mPairCount; }
+      if (state.mCount <= 0) { setError(-1); }
+      else { result /= state.mCount; }
 
       if (mTransform != null) {
          Logger.debug(String.format("ITSRegionAverageMetric %s: %.04f/%d",
                                     (mTransform ? "(t)" : "(not t)"),
-                                    mResult, mPairCount));
+                                    state.mResult, state.mCount));
 
          if (mTransform) {
             if (result >= mAlpha) { result = 1.0f; }
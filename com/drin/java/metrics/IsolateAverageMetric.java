@@ -50,8 +50,10 @@ public class IsolateAverageMetric extends DataMetric<Isolate> {
                                     "comparison is %.04f\n\tresult is " +
                                     "%.04f", total, total/regionCount));
 
-         if (mResult != 0) { setError(-1); }
-         mResult = total / regionCount;
+         MetricState state = state();
+
+         if (state.mResult != 0) { setError(-1); }
+         state.mResult = total / regionCount;
       }
 
       else { setError(-1); }
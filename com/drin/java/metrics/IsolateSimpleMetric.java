@@ -36,7 +36,7 @@ public class IsolateSimpleMetric extends DataMetric<Isolate> {
 
             if (tmp_map.containsKey(elem_B.getName())) {
                //System.out.printf("%s\n", elem_B.getName());
-               mResult += tmp_map.get(elem_B.getName()).floatValue();
+               state().mResult += tmp_map.get(elem_B.getName()).floatValue();
             }
             else {
                setError(-1);
@@ -51,7 +51,7 @@ public class IsolateSimpleMetric extends DataMetric<Isolate> {
 
             if (tmp_map.containsKey(elem_A.getName())) {
                //System.out.printf("%s\n", elem_A.getName());
-               mResult += tmp_map.get(elem_A.getName()).floatValue();
+               state().mResult += tmp_map.get(elem_A.getName()).floatValue();
             }
             else {
                setError(-1);
@@ -67,7 +67,7 @@ public class IsolateSimpleMetric extends DataMetric<Isolate> {
 
    @Override
    public float result() {
-      float result = mResult / mRegionMap.size();
+      float result = state().mResult / mRegionMap.size();
 
       //Logger.debug(String.format("comparison: [%.05f]", result));
       this.reset();
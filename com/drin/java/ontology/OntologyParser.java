@@ -39,15 +39,7 @@ public class OntologyParser {
       mRegexPattern = Pattern.compile(FEATURE_PATTERN + FEATURE_DELIMITER);
       mRegexMatch = null;
 
-      if (mConn == null) {
-         try { mConn = new CPLOPConnection(); }
-         catch (java.sql.SQLException sqlErr) {
-            sqlErr.printStackTrace();
-         }
-         catch (Exception err) {
-            err.printStackTrace();
-         }
-      }
+      if (mConn == null) { mConn = CPLOPConnection.getConnection(); }
    }
 
    public static void main(String[] args) {
@@ -144,7 +144,8 @@ public class OntologyTerm {
          }
       }
 
-      mHasNewData = dataAdded;
+      //data already waiting to be clustered stays new until setClusters
+      mHasNewData = mHasNewData || dataAdded;
       return dataAdded;
    }
 
@@ -0,0 +1,205 @@
+package com.drin.java.output;
+
+import com.drin.java.util.Configuration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import java.util.List;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/**
+ * CSV trace of comparisons, for checking what the comparison code did
+ * without slowing it down. Logging is off unless the [audit] section of the
+ * configuration sets "log comparisons=true", and then only a "sample rate"
+ * fraction of the comparisons are recorded. A log's file is only created if
+ * logging is on.
+ *
+ * Comparing threads never wait on the file. Each line is put in a
+ * fixed-size ring buffer with a compare-and-set, and one background thread
+ * drains every log's buffer in batches. Lines that arrive while a buffer is
+ * full are dropped and counted instead.
+ */
+public class AuditLog {
+   private static final String AUDIT_SECTION = "audit",
+                               ENABLED_KEY = "log comparisons",
+                               SAMPLE_RATE_KEY = "sample rate",
+                               BUFFER_SIZE_KEY = "buffer size";
+
+   private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+   private static final long DRAIN_INTERVAL = 100;
+
+   private static final List<AuditLog> sOpenLogs = new CopyOnWriteArrayList<AuditLog>();
+   private static Thread sDrainThread = null;
+
+   private final float mSampleRate;
+   private final AtomicReferenceArray<String> mSlots;
+   private final int mMask;
+   private final AtomicLong mTail, mDropped;
+
+   //only advanced, and the writer only used, while holding this log's lock
+   private volatile long mHead;
+   private volatile BufferedWriter mWriter;
+
+   private AuditLog(float sampleRate, int bufferSize, BufferedWriter writer) {
+      mSampleRate = sampleRate;
+      mSlots = new AtomicReferenceArray<String>(bufferSize);
+      mMask = bufferSize - 1;
+      mTail = new AtomicLong(0);
+      mDropped = new AtomicLong(0);
+      mHead = 0;
+      mWriter = writer;
+   }
+
+   /**
+    * Opens the log with the given file name and writes its header, or
+    * returns a log that records nothing if logging is off.
+    */
+   public static AuditLog open(String fileName, String header) {
+      Boolean enabled = Configuration.getBoolean(AUDIT_SECTION, ENABLED_KEY);
+      Float sampleRate = Configuration.getFloat(AUDIT_SECTION, SAMPLE_RATE_KEY);
+      Integer bufferSize = Configuration.getInt(AUDIT_SECTION, BUFFER_SIZE_KEY);
+
+      if (enabled == null || !enabled.booleanValue()) {
+         return new AuditLog(0.0f, 1, null);
+      }
+
+      //the ring buffer's size must be a power of two
+      int numSlots = Integer.highestOneBit(Math.max(2, bufferSize != null ?
+                                                       bufferSize.intValue() :
+                                                       DEFAULT_BUFFER_SIZE));
+
+      try {
+         BufferedWriter writer = new BufferedWriter(new FileWriter(new File(fileName)));
+         writer.write(header);
+
+         AuditLog log = new AuditLog(sampleRate != null ? sampleRate.floatValue() : 1.0f,
+                                     numSlots, writer);
+         sOpenLogs.add(log);
+         startDrainThread();
+
+         return log;
+      }
+      catch (IOException ioErr) {
+         System.err.printf("Could not open audit log '%s'\n", fileName);
+         ioErr.printStackTrace();
+
+         return new AuditLog(0.0f, 1, null);
+      }
+   }
+
+   /**
+    * Decides whether the current comparison should be recorded. Callers
+    * should only format a line when this is true.
+    */
+   public boolean sample() {
+      if (mSampleRate <= 0.0f) { return false; }
+      return mSampleRate >= 1.0f || ThreadLocalRandom.current().nextFloat() < mSampleRate;
+   }
+
+   /**
+    * Queues a line to be written. Never blocks; if the buffer is full the
+    * line is dropped.
+    *
+    * @return boolean Whether the line was queued.
+    */
+   public boolean record(String line) {
+      if (mWriter == null) { return false; }
+
+      long slot;
+      do {
+         slot = mTail.get();
+
+         if (slot - mHead > mMask) {
+            mDropped.incrementAndGet();
+            return false;
+         }
+      } while (!mTail.compareAndSet(slot, slot + 1));
+
+      mSlots.set((int) (slot & mMask), line);
+      return true;
+   }
+
+   public long getDropped() { return mDropped.get(); }
+
+   /**
+    * Writes out everything queued so far and closes the log's file. Lines
+    * recorded afterwards are ignored.
+    */
+   public synchronized void close() {
+      if (mWriter == null) { return; }
+
+      drain();
+      sOpenLogs.remove(this);
+
+      try {
+         if (mDropped.get() > 0) {
+            mWriter.write(String.format("# %d lines dropped\n", mDropped.get()));
+         }
+
+         mWriter.close();
+      }
+      catch (IOException ioErr) { ioErr.printStackTrace(); }
+
+      mWriter = null;
+   }
+
+   /*
+    * Writes the lines from the head of the buffer up to the first slot that
+    * has been claimed but not yet filled.
+    */
+   private synchronized void drain() {
+      if (mWriter == null) { return; }
+
+      long head = mHead;
+
+      try {
+         while (true) {
+            int slotNdx = (int) (head & mMask);
+            String line = mSlots.get(slotNdx);
+
+            if (line == null) { break; }
+
+            mSlots.lazySet(slotNdx, null);
+            mWriter.write(line);
+            head++;
+         }
+
+         mWriter.flush();
+      }
+      catch (IOException ioErr) { ioErr.printStackTrace(); }
+      finally { mHead = head; }
+   }
+
+   private static synchronized void startDrainThread() {
+      if (sDrainThread != null) { return; }
+
+      sDrainThread = new Thread(new Runnable() {
+         public void run() {
+            while (true) {
+               for (AuditLog log : sOpenLogs) { log.drain(); }
+
+               try { Thread.sleep(DRAIN_INTERVAL); }
+               catch (InterruptedException interruptErr) { return; }
+            }
+         }
+      }, "audit log writer");
+
+      sDrainThread.setDaemon(true);
+      sDrainThread.start();
+
+      //the drain thread does not keep the JVM alive, so logs that were not
+      //closed are written out on exit
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+         public void run() {
+            for (AuditLog log : sOpenLogs) { log.close(); }
+         }
+      }));
+   }
+}